@@ -0,0 +1,16 @@
+-- Secondary indexes for the search and reservation queries, run on SQL Server after
+-- createTables.sql and the Flights data are loaded. The keys hold only the columns the queries
+-- seek and sort on; the other columns they select are INCLUDE columns, so the queries are answered
+-- from the index while the writes of book, cancel and pay never move an index row. The embedded
+-- database cannot parse INCLUDE and uses createIndexesEmbedded.sql instead.
+
+-- searches: a direct search and both legs of a one-hop search seek on
+-- (origin_city, day_of_month_id, canceled, dest_city) and read the flights of a month in
+-- actual_time order
+CREATE INDEX FlightsByOrigin ON Flights(
+origin_city, day_of_month_id, canceled, dest_city, month_id, actual_time, fid
+) INCLUDE (carrier_id, flight_num, capacity, price);
+
+-- reservations of a user in rid order, with the columns of the reservations command; rid is the
+-- primary key in createTables.sql
+CREATE INDEX ReservationByUsername ON Reservation(username, rid) INCLUDE (paid, legs, fid1, fid2);
@@ -0,0 +1,9 @@
+-- The indexes of createIndexes.sql for the embedded H2 database, which has no INCLUDE columns.
+-- The keys are the same; the other columns are read from the table by primary key, so the
+-- capacity updates of book and cancel and the paid update of pay never move an index row.
+
+CREATE INDEX FlightsByOrigin ON Flights(
+origin_city, day_of_month_id, canceled, dest_city, month_id, actual_time, fid
+);
+
+CREATE INDEX ReservationByUsername ON Reservation(username, rid);
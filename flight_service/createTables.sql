@@ -1,14 +1,38 @@
+-- password is a 16 byte salt followed by the 16 byte PBKDF2 hash
 CREATE TABLE Users(
 username varchar(20) NOT NULL PRIMARY KEY,
-password varbinary(20) NOT NULL,
+password varbinary(32) NOT NULL,
 balance int NOT NULL
 );
 
+-- fid2 is NULL for direct itineraries, legs counts the flights
 CREATE TABLE Reservation(
-rid int,
+rid int NOT NULL PRIMARY KEY,
 iid int,
-username varchar(20),
+username varchar(20) NOT NULL,
 paid int,
 canceled int,
-price int
+price int,
+fid1 int NOT NULL,
+fid2 int,
+day_of_month int NOT NULL,
+legs int NOT NULL
+);
+
+-- the flights after the second of reservations with more than two legs, leg numbers from 3
+CREATE TABLE ReservationLegs(
+rid int NOT NULL,
+leg int NOT NULL,
+fid int NOT NULL,
+PRIMARY KEY (rid, leg)
+);
+
+CREATE SEQUENCE ReservationIds AS int START WITH 1 INCREMENT BY 1;
+
+-- progress of the Flights loads of FlightLoader, committed with every batch so a stopped load resumes
+CREATE TABLE FlightLoads(
+source varchar(400) NOT NULL PRIMARY KEY,
+file_size bigint NOT NULL,
+next_offset bigint NOT NULL,
+rows_loaded bigint NOT NULL
 );
@@ -0,0 +1,50 @@
+package flightapp;
+
+import flightapp.auth.Authenticator;
+import flightapp.db.ConnectionPool;
+import flightapp.db.PooledConnection;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Shortcuts into the {@link flightapp.db.EmbeddedDatabase} the benchmarks run against.
+ */
+final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * @return the path of the SQL script parameter {@code script}, or null if it is "none"
+     */
+    static Path script(String script) {
+        return script.equals("none") ? null : Paths.get(script);
+    }
+
+    /**
+     * Adds a user directly, bypassing {@link Query#createUser(String, String, int)}.
+     */
+    static void createUser(ConnectionPool pool, String username, String password, int balance) throws SQLException {
+        try (PooledConnection pooled = pool.borrow();
+             PreparedStatement ps = pooled.getConnection().prepareStatement("INSERT INTO Users VALUES(?, ?, ?)")) {
+            ps.setString(1, username);
+            ps.setBytes(2, Authenticator.saltedHash(password));
+            ps.setInt(3, balance);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Runs {@code sql} on a pooled connection.
+     */
+    static void execute(ConnectionPool pool, String sql) throws SQLException {
+        try (PooledConnection pooled = pool.borrow();
+             Statement statement = pooled.getConnection().createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package flightapp;
+
+import flightapp.tools.CaseFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tokenizing and dispatching the commands of the test cases, before and after
+ * {@link CommandTokenizer} replaced the regular expression and the chain of equals calls.
+ *
+ * Every invocation handles the next command of the cases, so scores are per command. Run with
+ * {@code -prof gc} to see the bytes allocated per command:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar CommandParsingBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParsingBenchmark {
+
+    @Param("cases")
+    public String cases;
+
+    private String[] commands;
+    private int next = 0;
+    private final CommandTokenizer tokenizer = new CommandTokenizer();
+
+    @Setup
+    public void loadCommands() throws IOException {
+        List<String> all = new ArrayList<>();
+        for (CaseFile caseFile : CaseFile.parseAll(Paths.get(cases))) {
+            for (List<String> user : caseFile.users()) {
+                all.addAll(user);
+            }
+        }
+        if (all.isEmpty()) {
+            throw new IllegalStateException("No commands found under " + cases);
+        }
+        commands = all.toArray(new String[0]);
+    }
+
+    private String nextCommand() {
+        String command = commands[next];
+        next = next + 1 == commands.length ? 0 : next + 1;
+        return command;
+    }
+
+    /**
+     * The former FlightService.tokenize and the head of the former execute.
+     */
+    @Benchmark
+    public int regexAndEquals() {
+        String command = nextCommand().trim();
+        Matcher m = Pattern.compile("\"([^\"]*)\"|(\\S+)").matcher(command);
+        List<String> list = new ArrayList<>();
+        while (m.find()) {
+            if (m.group(1) != null)
+                list.add(m.group(1));
+            else
+                list.add(m.group(2));
+        }
+        String[] tokens = list.toArray(new String[0]);
+
+        if (tokens.length == 0) {
+            return -1;
+        } else if (tokens[0].equals("login")) {
+            return 0;
+        } else if (tokens[0].equals("create")) {
+            return 1;
+        } else if (tokens[0].equals("search")) {
+            return 2;
+        } else if (tokens[0].equals("book")) {
+            return 3;
+        } else if (tokens[0].equals("reservations")) {
+            return 4;
+        } else if (tokens[0].equals("pay")) {
+            return 5;
+        } else if (tokens[0].equals("cancel")) {
+            return 6;
+        } else if (tokens[0].equals("quit")) {
+            return 7;
+        }
+        return -2;
+    }
+
+    @Benchmark
+    public int tokenizerAndSwitch() {
+        if (tokenizer.tokenize(nextCommand()) == 0) {
+            return -1;
+        }
+        FlightService.Command command = FlightService.Command.of(tokenizer);
+        return command == null ? -2 : command.ordinal();
+    }
+}
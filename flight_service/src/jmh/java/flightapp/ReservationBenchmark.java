@@ -0,0 +1,180 @@
+package flightapp;
+
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.SyntheticFlights;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Query#book}, {@link Query#transaction_pay}, {@link Query#transaction_cancel} and
+ * {@link Query#transaction_reservations} over a synthetic Flights table.
+ *
+ * Every benchmark thread is its own logged-in user. Flights have enough seats that booking never
+ * runs out. Pay and cancel each get a fresh reservation, booked outside of the measured call.
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar ReservationBenchmark -t 4
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservationBenchmark {
+
+    private static final long SEED = 42;
+    private static final String PASSWORD = "password";
+
+    @Param("10000")
+    public int flights;
+
+    // reservations held by the user whose reservations are listed
+    @Param("20")
+    public int reservations;
+
+    @Param("createTables.sql")
+    public String createTables;
+
+    // "none" for a database without secondary indexes
+    @Param("createIndexesEmbedded.sql")
+    public String createIndexes;
+
+    private SyntheticFlights data;
+    private ConnectionPool pool;
+    private final AtomicInteger users = new AtomicInteger();
+
+    @Setup
+    public void openDatabase() throws SQLException, IOException {
+        data = SyntheticFlights.generate(flights, 1_000_000_000, SEED);
+        pool = EmbeddedDatabase.open("reservations", data, Paths.get(createTables),
+                BenchmarkDatabase.script(createIndexes), 16);
+    }
+
+    @TearDown
+    public void closeDatabase() {
+        pool.close();
+    }
+
+    /**
+     * A logged-in user holding the itineraries of one search.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        Query query;
+        String username;
+        int itineraries;
+        int next = 0;
+
+        @Setup
+        public void open(ReservationBenchmark benchmark) throws SQLException {
+            username = "user" + benchmark.users.incrementAndGet();
+            BenchmarkDatabase.createUser(benchmark.pool, username, PASSWORD, 1_000_000_000);
+            query = new Query(benchmark.pool);
+            query.transaction_login(username, PASSWORD);
+
+            int[] search = benchmark.data.directSearches(1, SEED).get(0);
+            String result = query.transaction_search(benchmark.data.cities[search[0]],
+                    benchmark.data.cities[search[1]], false, search[2], 10);
+            itineraries = result.split("Itinerary ", -1).length - 1;
+            if (itineraries == 0) {
+                throw new IllegalStateException("Search found nothing to book: " + result);
+            }
+        }
+
+        /**
+         * Books the next itinerary of the search.
+         */
+        String book() {
+            return query.book(1 + next++ % itineraries);
+        }
+
+        @TearDown(Level.Iteration)
+        public void dropReservations(ReservationBenchmark benchmark) throws SQLException {
+            BenchmarkDatabase.execute(benchmark.pool, "DELETE FROM Reservation WHERE username = '" + username + "'");
+        }
+
+        @TearDown
+        public void close() throws SQLException {
+            query.closeConnection();
+        }
+    }
+
+    /**
+     * A reservation booked right before each call, for pay and cancel.
+     */
+    @State(Scope.Thread)
+    public static class Booked {
+        int rid;
+
+        @Setup(Level.Invocation)
+        public void book(Session session) {
+            String booked = session.book();
+            rid = Integer.parseInt(booked.substring(booked.lastIndexOf(':') + 1).trim());
+        }
+    }
+
+    /**
+     * A user holding {@code reservations} reservations that are never changed.
+     */
+    @State(Scope.Thread)
+    public static class Holder {
+        Query query;
+
+        @Setup
+        public void open(ReservationBenchmark benchmark) throws SQLException {
+            Session session = new Session();
+            session.open(benchmark);
+            for (int i = 0; i < benchmark.reservations; i++) {
+                session.book();
+            }
+            query = session.query;
+        }
+
+        @TearDown
+        public void close() throws SQLException {
+            query.closeConnection();
+        }
+    }
+
+    @Benchmark
+    public String book(Session session) {
+        return session.book();
+    }
+
+    @Benchmark
+    public String pay(Session session, Booked booked) {
+        return session.query.transaction_pay(booked.rid);
+    }
+
+    @Benchmark
+    public String cancel(Session session, Booked booked) {
+        return session.query.transaction_cancel(booked.rid);
+    }
+
+    @Benchmark
+    public String reservations(Holder holder) {
+        return holder.query.transaction_reservations();
+    }
+}
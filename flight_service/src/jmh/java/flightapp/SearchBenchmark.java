@@ -0,0 +1,131 @@
+package flightapp;
+
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.SyntheticFlights;
+import flightapp.search.Ranking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Query#transaction_search} over a synthetic Flights table, answered from the flight index
+ * or from the database, for several numbers of itineraries.
+ *
+ * The search cache is turned off so every invocation does the full search. Every parameter
+ * combination runs in its own JVM, because the flight index is loaded once per JVM.
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar SearchBenchmark -p flights=100000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dflightapp.search_cache.max_entries=0")
+public class SearchBenchmark {
+
+    private static final int SEARCHES = 1024;
+    private static final long SEED = 42;
+
+    @Param("10000")
+    public int flights;
+
+    @Param({"true", "false"})
+    public boolean index;
+
+    @Param({"1", "10", "100"})
+    public int k;
+
+    // most flights of the multi-hop search, and its ranking: time, price, hops or pareto
+    @Param("4")
+    public int maxLegs;
+
+    @Param("time")
+    public String ranking;
+
+    // days searched on either side of the day of the multi-hop search
+    @Param("0")
+    public int window;
+
+    @Param("createTables.sql")
+    public String createTables;
+
+    // "none" for a database without secondary indexes
+    @Param("createIndexesEmbedded.sql")
+    public String createIndexes;
+
+    private SyntheticFlights data;
+    private ConnectionPool pool;
+    private List<int[]> directSearches;
+    private List<int[]> oneStopSearches;
+
+    @Setup
+    public void openDatabase() throws SQLException, IOException {
+        System.setProperty("flightapp.search_index", Boolean.toString(index));
+        data = SyntheticFlights.generate(flights, 100, SEED);
+        pool = EmbeddedDatabase.open("search", data, Paths.get(createTables),
+                BenchmarkDatabase.script(createIndexes), 16);
+        directSearches = data.directSearches(SEARCHES, SEED + 1);
+        oneStopSearches = data.oneStopSearches(SEARCHES, SEED + 2);
+    }
+
+    @TearDown
+    public void closeDatabase() {
+        pool.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        Query query;
+        int next = 0;
+
+        @Setup
+        public void open(SearchBenchmark benchmark) throws SQLException {
+            query = new Query(benchmark.pool);
+        }
+
+        @TearDown
+        public void close() throws SQLException {
+            query.closeConnection();
+        }
+    }
+
+    @Benchmark
+    public String direct(Session session) {
+        int[] search = directSearches.get(session.next++ % directSearches.size());
+        return session.query.transaction_search(data.cities[search[0]], data.cities[search[1]], true, search[2], k);
+    }
+
+    @Benchmark
+    public String oneStop(Session session) {
+        int[] search = oneStopSearches.get(session.next++ % oneStopSearches.size());
+        return session.query.transaction_search(data.cities[search[0]], data.cities[search[1]], false, search[2], k);
+    }
+
+    @Benchmark
+    public String multiHop(Session session) {
+        int[] search = oneStopSearches.get(session.next++ % oneStopSearches.size());
+        return session.query.transaction_search(data.cities[search[0]], data.cities[search[1]], maxLegs,
+                Ranking.of(ranking), Math.max(1, search[2] - window), Math.min(31, search[2] + window), k);
+    }
+}
@@ -0,0 +1,149 @@
+package flightapp;
+
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.PooledConnection;
+import flightapp.db.SyntheticFlights;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The direct and one-hop search queries of {@link Query#transaction_search} on a database with
+ * and without the indexes of createIndexesEmbedded.sql.
+ *
+ * Before measuring, the setup prints how the database reads Flights and Reservation for the
+ * search and reservations queries, and fails if a query still scans a table although the
+ * indexes were created. The flight index and the search cache are turned off so every
+ * invocation runs the queries.
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar SearchIndexBenchmark -p flights=100000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dflightapp.search_index=false", "-Dflightapp.search_cache.max_entries=0"})
+public class SearchIndexBenchmark {
+
+    private static final int SEARCHES = 1024;
+    private static final long SEED = 42;
+
+    @Param("20000")
+    public int flights;
+
+    @Param({"none", "createIndexesEmbedded.sql"})
+    public String createIndexes;
+
+    @Param("10")
+    public int k;
+
+    @Param("createTables.sql")
+    public String createTables;
+
+    private SyntheticFlights data;
+    private ConnectionPool pool;
+    private List<int[]> directSearches;
+    private List<int[]> oneStopSearches;
+
+    @Setup
+    public void openDatabase() throws SQLException, IOException {
+        data = SyntheticFlights.generate(flights, 100, SEED);
+        pool = EmbeddedDatabase.open("search_index", data, Paths.get(createTables),
+                BenchmarkDatabase.script(createIndexes), 16);
+        directSearches = data.directSearches(SEARCHES, SEED + 1);
+        oneStopSearches = data.oneStopSearches(SEARCHES, SEED + 2);
+
+        int[] search = oneStopSearches.get(0);
+        String origin = data.cities[search[0]];
+        String destination = data.cities[search[1]];
+        explain("direct", Query.DIRECT_SEARCH, k, origin, destination, search[2]);
+        explain("one hop", Query.ONE_HOP_SEARCH, k, origin, destination, search[2]);
+        explain("reservations", Query.RESERVATIONS, "user", "user", "user");
+    }
+
+    @TearDown
+    public void closeDatabase() {
+        pool.close();
+    }
+
+    /**
+     * Prints the tables and indexes {@code sql} reads with {@code parameters}.
+     *
+     * @throws IllegalStateException if it scans a table of a database with secondary indexes
+     */
+    private void explain(String name, String sql, Object... parameters) throws SQLException {
+        String plan;
+        try (PooledConnection pooled = pool.borrow();
+             PreparedStatement ps = pooled.getConnection().prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                plan = rs.getString(1);
+            }
+        }
+        StringBuilder access = new StringBuilder();
+        for (String line : plan.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("/* PUBLIC.")) {
+                access.append(access.length() == 0 ? "" : ", ").append(trimmed.replace("/*", "").replace("*/", "").trim());
+            }
+        }
+        System.out.println("\n" + name + " (" + createIndexes + "): " + access);
+        if (!createIndexes.equals("none") && plan.contains("tableScan")) {
+            throw new IllegalStateException("The " + name + " query scans a table:\n" + plan);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        Query query;
+        int next = 0;
+
+        @Setup
+        public void open(SearchIndexBenchmark benchmark) throws SQLException {
+            query = new Query(benchmark.pool);
+        }
+
+        @TearDown
+        public void close() throws SQLException {
+            query.closeConnection();
+        }
+    }
+
+    @Benchmark
+    public String direct(Session session) {
+        int[] search = directSearches.get(session.next++ % directSearches.size());
+        return session.query.transaction_search(data.cities[search[0]], data.cities[search[1]], true, search[2], k);
+    }
+
+    @Benchmark
+    public String oneStop(Session session) {
+        int[] search = oneStopSearches.get(session.next++ % oneStopSearches.size());
+        return session.query.transaction_search(data.cities[search[0]], data.cities[search[1]], false, search[2], k);
+    }
+}
@@ -0,0 +1,230 @@
+package flightapp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits commands into tokens without allocating.
+ *
+ * Tokens are separated by whitespace. A token starting with a double quote runs to the next
+ * double quote and leaves both quotes out, so city names can contain spaces. A double quote
+ * without a closing one is an ordinary character. This is the grammar of the regular expression
+ * {@code "([^"]*)"|(\S+)} the commands were split with before.
+ *
+ * Tokens are kept as spans over a char buffer that is reused for the next command, so only the
+ * arguments that are handed on as strings are ever copied out. A tokenizer is not thread-safe.
+ */
+final class CommandTokenizer {
+
+    private char[] chars = new char[256];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int count = 0;
+
+    /**
+     * Splits {@code command}, replacing the tokens of the previous command.
+     *
+     * @return the number of tokens
+     */
+    int tokenize(String command) {
+        int length = command.length();
+        reserve(length);
+        command.getChars(0, length, chars, 0);
+        return split(length);
+    }
+
+    /**
+     * Splits the {@code length} UTF-8 bytes of {@code command} from {@code offset}. ASCII, which
+     * the command names and most arguments are, is decoded straight into the char buffer; a
+     * command with other chars is decoded through a string.
+     *
+     * @return the number of tokens
+     */
+    int tokenize(byte[] command, int offset, int length) {
+        reserve(length);
+        for (int i = 0; i < length; i++) {
+            byte b = command[offset + i];
+            if (b < 0) {
+                return tokenize(new String(command, offset, length, StandardCharsets.UTF_8));
+            }
+            chars[i] = (char) b;
+        }
+        return split(length);
+    }
+
+    private void reserve(int length) {
+        if (length > chars.length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+    }
+
+    private int split(int length) {
+        count = 0;
+        int i = 0;
+        while (i < length) {
+            char c = chars[i];
+            if (isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (c == '"') {
+                int close = indexOfQuote(i + 1, length);
+                if (close >= 0) {
+                    add(i + 1, close);
+                    i = close + 1;
+                    continue;
+                }
+            }
+            int end = i + 1;
+            while (end < length && !isWhitespace(chars[end])) {
+                end++;
+            }
+            add(i, end);
+            i = end;
+        }
+        return count;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return the number of chars of token {@code token}
+     */
+    int length(int token) {
+        return ends[token] - starts[token];
+    }
+
+    /**
+     * @return char {@code index} of token {@code token}, which must be shorter than that
+     */
+    char charAt(int token, int index) {
+        return chars[starts[token] + index];
+    }
+
+    /**
+     * @return true if token {@code token} is exactly {@code value}
+     */
+    boolean is(int token, String value) {
+        int start = starts[token];
+        int length = ends[token] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of token {@code token}
+     */
+    String string(int token) {
+        return new String(chars, starts[token], ends[token] - starts[token]);
+    }
+
+    /**
+     * Parses token {@code token} as a decimal int, the way {@link Integer#parseInt(String)} does
+     * for ASCII digits.
+     *
+     * @throws NumberFormatException if the token is not a decimal int
+     */
+    int parseInt(int token) {
+        return parseInt(token, starts[token], ends[token]);
+    }
+
+    /**
+     * Parses the first int of token {@code token} written as a range of two decimal ints joined by
+     * a '-', like "3-9", or as a single decimal int, which is the range of that int only.
+     *
+     * @throws NumberFormatException if the token is neither
+     */
+    int parseRangeFirst(int token) {
+        int dash = indexOfDash(token);
+        return parseInt(token, starts[token], dash < 0 ? ends[token] : dash);
+    }
+
+    /**
+     * Parses the last int of token {@code token} written as in {@link #parseRangeFirst}.
+     *
+     * @throws NumberFormatException if the token is not a range
+     */
+    int parseRangeLast(int token) {
+        int dash = indexOfDash(token);
+        return parseInt(token, dash < 0 ? starts[token] : dash + 1, ends[token]);
+    }
+
+    private int parseInt(int token, int i, int end) {
+        if (i == end) {
+            throw invalidNumber(token);
+        }
+        boolean negative = false;
+        char first = chars[i];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == end) {
+                throw invalidNumber(token);
+            }
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalidNumber(token);
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                throw invalidNumber(token);
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private NumberFormatException invalidNumber(int token) {
+        return new NumberFormatException("For input string: \"" + string(token) + "\"");
+    }
+
+    /**
+     * @return the position of the first '-' of token {@code token} after its first char, which may
+     *         be a sign, or -1
+     */
+    private int indexOfDash(int token) {
+        for (int i = starts[token] + 1; i < ends[token]; i++) {
+            if (chars[i] == '-') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfQuote(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (chars[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    /**
+     * The whitespace characters of {@code \s}.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
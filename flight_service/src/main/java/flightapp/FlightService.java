@@ -1,127 +1,294 @@
 package flightapp;
 
+import flightapp.db.ConnectionPool;
+import flightapp.metrics.CommandMetrics;
+import flightapp.metrics.Metrics;
+import flightapp.metrics.MetricsExporter;
+import flightapp.search.Ranking;
+import flightapp.server.FlightServer;
+import flightapp.server.NioFlightServer;
+
 import java.io.*;
-import java.util.*;
-import java.util.regex.*;
 import java.sql.*;
 
 public class FlightService {
 
+  /**
+   * The commands of the protocol
+   */
+  enum Command {
+    LOGIN("login"), CREATE("create"), SEARCH("search"), CITIES("cities"), BOOK("book"),
+    RESERVATIONS("reservations"), PAY("pay"), CANCEL("cancel"), QUIT("quit");
+
+    final String name;
+    final CommandMetrics metrics;
+
+    Command(String name) {
+      this.name = name;
+      this.metrics = Metrics.command(name);
+    }
+
+    /**
+     * Picks the only command the first token can be by its length and first chars, and compares
+     * the token with that one name.
+     *
+     * @return the command named by the first token, or null if there is none
+     */
+    static Command of(CommandTokenizer tokens) {
+      Command command;
+      switch (tokens.length(0)) {
+        case 3:
+          command = PAY;
+          break;
+        case 4:
+          command = tokens.charAt(0, 0) == 'b' ? BOOK : QUIT;
+          break;
+        case 5:
+          command = LOGIN;
+          break;
+        case 6:
+          switch (tokens.charAt(0, 0)) {
+            case 's':
+              command = SEARCH;
+              break;
+            case 'c':
+              char second = tokens.charAt(0, 1);
+              command = second == 'r' ? CREATE : second == 'i' ? CITIES : CANCEL;
+              break;
+            default:
+              return null;
+          }
+          break;
+        case 12:
+          command = RESERVATIONS;
+          break;
+        default:
+          return null;
+      }
+      return tokens.is(0, command.name) ? command : null;
+    }
+  }
+
+  // city names listed by the cities command
+  private static final int CITY_SUGGESTIONS = 10;
+
+  // the tokenizer keeps its buffers between commands, so each thread gets its own
+  private static final ThreadLocal<CommandTokenizer> TOKENIZERS = ThreadLocal.withInitial(CommandTokenizer::new);
+
   /**
    * Execute the specified command on the database query connection
    */
   public static String execute(Query q, String command) {
-    String[] tokens = tokenize(command.trim());
-    String response;
+    CommandTokenizer tokens = TOKENIZERS.get();
+    return execute(q, tokens, tokens.tokenize(command));
+  }
 
+  /**
+   * Execute the command of {@code length} UTF-8 bytes from {@code offset}, as read off a socket,
+   * without making a string of the whole command
+   */
+  public static String execute(Query q, byte[] command, int offset, int length) {
+    CommandTokenizer tokens = TOKENIZERS.get();
+    return execute(q, tokens, tokens.tokenize(command, offset, length));
+  }
+
+  private static String execute(Query q, CommandTokenizer tokens, int count) {
     // empty input
-    if (tokens.length == 0) {
-      response = "Please enter a command";
+    if (count == 0) {
+      return "Please enter a command";
     }
 
-    // login
-    else if (tokens[0].equals("login")) {
-      if (tokens.length == 3) {
-        String username = tokens[1];
-        String password = tokens[2];
-        response = q.transaction_login(username, password);
-      } else {
-        response = "Error: Please provide a username and password";
-      }
+    Command c = Command.of(tokens);
+    if (c == null) {
+      return "Error: unrecognized command '" + tokens.string(0) + "'";
     }
 
-    // create
-    else if (tokens[0].equals("create")) {
-      if (tokens.length == 4) {
-        String username = tokens[1];
-        String password = tokens[2];
-        int initAmount = Integer.parseInt(tokens[3]);
-        response = q.createUser(username, password, initAmount);
-      } else {
-        response = "Error: Please provide a username, password, and initial amount in the account";
-      }
+    long start = System.nanoTime();
+    String result;
+    try {
+      result = dispatch(q, c, tokens, count);
+    } catch (RuntimeException e) {
+      c.metrics.recordError(System.nanoTime() - start, q.takeRoundTrips());
+      throw e;
     }
+    c.metrics.record(System.nanoTime() - start, q.takeRoundTrips(), result);
+    return result;
+  }
 
-    // search
-    else if (tokens[0].equals("search")) {
-      if (tokens.length == 6) {
-        String originCity = tokens[1];
-        String destinationCity = tokens[2];
-        boolean direct = tokens[3].equals("1");
-        try {
-          int day = Integer.valueOf(tokens[4]);
-          int count = Integer.valueOf(tokens[5]);
-          response = q.transaction_search(originCity, destinationCity, direct, day, count);
-        } catch (NumberFormatException e) {
-          response = "Failed to parse integer";
+  private static String dispatch(Query q, Command c, CommandTokenizer tokens, int count) {
+    switch (c) {
+      case LOGIN:
+        if (count == 3) {
+          return q.transaction_login(tokens.string(1), tokens.string(2));
         }
-      } else {
-        response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries>";
-      }
-    }
+        return "Error: Please provide a username and password";
 
-    // book
-    else if (tokens[0].equals("book")) {
-      if (tokens.length == 2) {
-        int itinerary_id = Integer.parseInt(tokens[1]);
-        response = q.book(itinerary_id);
-      } else {
-        response = "Error: Please provide an itinerary_id";
-      }
-    }
+      case CREATE:
+        if (count == 4) {
+          String username = tokens.string(1);
+          String password = tokens.string(2);
+          int initAmount = tokens.parseInt(3);
+          return q.createUser(username, password, initAmount);
+        }
+        return "Error: Please provide a username, password, and initial amount in the account";
 
-    // reservations
-    else if (tokens[0].equals("reservations")) {
-      response = q.transaction_reservations();
-    }
+      case SEARCH:
+        if (count >= 6 && count <= 8) {
+          String originCity = tokens.string(1);
+          String destinationCity = tokens.string(2);
+          boolean direct = tokens.is(3, "1");
+          try {
+            // a day of the month, or a range of them like 5-11
+            int day = tokens.parseRangeFirst(4);
+            int lastDay = tokens.parseRangeLast(4);
+            int itineraries = tokens.parseInt(5);
+            // rejected here so the index and the database answer them alike
+            if (itineraries <= 0) {
+              return "Error: Please ask for at least one itinerary";
+            }
+            if (lastDay < day) {
+              return "Error: Please give a range of days whose last day is not before its first";
+            }
+            if (count == 6 && lastDay == day) {
+              return q.transaction_search(originCity, destinationCity, direct, day, itineraries);
+            }
+            // itineraries of up to max legs flights, fastest first unless ranked otherwise, direct
+            // flights not listed first; a range of days without max legs ranks like a single day
+            int maxLegs = direct ? 1 : count >= 7 ? tokens.parseInt(6) : 2;
+            Ranking ranking = count == 8 ? Ranking.of(tokens.string(7)) : count == 7 ? Ranking.TIME : Ranking.HOPS;
+            if (maxLegs <= 0) {
+              return "Error: Please allow at least one leg";
+            }
+            if (ranking == null) {
+              return "Error: Please rank by time, price, hops or pareto";
+            }
+            return q.transaction_search(originCity, destinationCity, maxLegs, ranking, day, lastDay, itineraries);
+          } catch (NumberFormatException e) {
+            return "Failed to parse integer";
+          }
+        }
+        return "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date>[-<last date>] <nb itineraries> [max legs [time|price|hops|pareto]]";
 
-    // pay
-    else if (tokens[0].equals("pay")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_pay(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
+      case CITIES:
+        if (count == 2 || (count == 3 && tokens.is(2, "fuzzy"))) {
+          return q.transaction_cities(tokens.string(1), count == 3, CITY_SUGGESTIONS);
+        }
+        return "Error: Please provide the start of a city name, optionally followed by fuzzy";
 
-    // cancel
-    else if (tokens[0].equals("cancel")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_cancel(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
+      case BOOK:
+        if (count == 2) {
+          return q.book(tokens.parseInt(1));
+        }
+        return "Error: Please provide an itinerary_id";
 
-    // quit
-    else if (tokens[0].equals("quit")) {
-      response = "Goodbye\n";
-    }
+      case RESERVATIONS:
+        return q.transaction_reservations();
 
-    // unknown command
-    else {
-      response = "Error: unrecognized command '" + tokens[0] + "'";
-    }
+      case PAY:
+        if (count == 2) {
+          return q.transaction_pay(tokens.parseInt(1));
+        }
+        return "Error: Please provide a reservation_id";
 
-    return response;
+      case CANCEL:
+        if (count == 2) {
+          return q.transaction_cancel(tokens.parseInt(1));
+        }
+        return "Error: Please provide a reservation_id";
+
+      case QUIT:
+        return "Goodbye\n";
+
+      default:
+        throw new AssertionError(c);
+    }
   }
 
   /**
    * Establishes an application-to-database connection and runs the Flights
-   * application REPL
+   * application REPL, or serves the commands over TCP when started with
+   * {@code server [port]} (a reader thread per session) or {@code nio-server [port]}
+   * (a selector thread shared by all sessions)
    * 
    * @param args
    * @throws IOException
    */
   public static void main(String[] args) throws IOException, SQLException {
+    if (args.length > 0 && args[0].equals("server")) {
+      serve(args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("flightapp.server.port", 8765));
+      return;
+    }
+    if (args.length > 0 && args[0].equals("nio-server")) {
+      serveNio(args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("flightapp.server.port", 8765));
+      return;
+    }
+
     /* prepare the database connection stuff */
     Query q = new Query();
     menu(q);
     q.closeConnection();
   }
 
+  /**
+   * Serves the commands to many clients at once, one session per connection
+   * 
+   * @param port
+   * @throws IOException
+   */
+  private static void serve(int port) throws IOException {
+    ConnectionPool pool = Util.openPoolFromDbConn();
+    startMetrics(pool);
+    // sessions cost a reader thread with a small stack each; commands run on the workers
+    FlightServer server = new FlightServer(pool, port,
+        Integer.getInteger("flightapp.server.workers", 32),
+        Integer.getInteger("flightapp.server.max_sessions", 2000),
+        Integer.getInteger("flightapp.server.idle_timeout_ms", 300000),
+        Integer.getInteger("flightapp.server.backlog", 1024));
+    System.out.println("Listening on port " + server.bind());
+    server.serve();
+  }
+
+  /**
+   * Serves the commands to many clients from one selector thread, clients may
+   * pipeline commands
+   * 
+   * @param port
+   * @throws IOException
+   */
+  private static void serveNio(int port) throws IOException {
+    ConnectionPool pool = Util.openPoolFromDbConn();
+    startMetrics(pool);
+    NioFlightServer server = new NioFlightServer(pool, port,
+        Integer.getInteger("flightapp.server.workers", 32),
+        Integer.getInteger("flightapp.server.max_sessions", 50000),
+        Integer.getInteger("flightapp.server.max_pipelined", 64),
+        Long.getLong("flightapp.server.idle_timeout_ms", 300000L),
+        Integer.getInteger("flightapp.server.buffer_size", 16384));
+    System.out.println("Listening on port " + server.bind());
+    server.serve();
+  }
+
+  /**
+   * Publishes the metrics of a server: over HTTP at /metrics when the system
+   * property flightapp.metrics.port is set, and as a summary printed every
+   * flightapp.metrics.log_interval_s seconds (60 by default, 0 to turn it off)
+   * 
+   * @param pool
+   * @throws IOException
+   */
+  private static void startMetrics(ConnectionPool pool) throws IOException {
+    Metrics.watch("default", pool);
+    int port = Integer.getInteger("flightapp.metrics.port", -1);
+    if (port >= 0) {
+      System.out.println("Metrics at http://localhost:" + MetricsExporter.serveHttp(port).getAddress().getPort()
+          + "/metrics");
+    }
+    long interval = Long.getLong("flightapp.metrics.log_interval_s", 60L);
+    if (interval > 0) {
+      MetricsExporter.logEvery(interval, System.out);
+    }
+  }
+
   /**
    * REPL (Read-Execute-Print-Loop) for Flights application for the specified
    * application-to-database connection
@@ -130,23 +297,27 @@ public class FlightService {
    * @throws IOException
    */
   private static void menu(Query q) throws IOException {
-    while (true) {
-      // print the command options
-      System.out.println();
-      System.out.println(" *** Please enter one of the following commands *** ");
-      System.out.println("> create <username> <password> <initial amount>");
-      System.out.println("> login <username> <password>");
-      System.out.println("> search <origin city> <destination city> <direct> <day of the month> <num itineraries>");
-      System.out.println("> book <itinerary id>");
-      System.out.println("> pay <reservation id>");
-      System.out.println("> reservations");
-      System.out.println("> cancel <reservation id>");
-      System.out.println("> quit");
+    // print the command options
+    System.out.println();
+    System.out.println(" *** Please enter one of the following commands *** ");
+    System.out.println("> create <username> <password> <initial amount>");
+    System.out.println("> login <username> <password>");
+    System.out.println("> search <origin city> <destination city> <direct> <day of the month>[-<last day>] <num itineraries> [max legs [time|price|hops|pareto]]");
+    System.out.println("> cities <start of city name> [fuzzy]");
+    System.out.println("> book <itinerary id>");
+    System.out.println("> pay <reservation id>");
+    System.out.println("> reservations");
+    System.out.println("> cancel <reservation id>");
+    System.out.println("> quit");
 
+    BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+    while (true) {
       // read an input command from the REPL
-      BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
       System.out.print("> ");
       String command = r.readLine();
+      if (command == null) {
+        break;
+      }
 
       // execute the given input command
       String response = execute(q, command);
@@ -156,20 +327,4 @@ public class FlightService {
       }
     }
   }
-
-  /**
-   * Tokenize a string into a string array
-   */
-  private static String[] tokenize(String command) {
-    String regex = "\"([^\"]*)\"|(\\S+)";
-    Matcher m = Pattern.compile(regex).matcher(command);
-    List<String> tokens = new ArrayList<>();
-    while (m.find()) {
-      if (m.group(1) != null)
-        tokens.add(m.group(1));
-      else
-        tokens.add(m.group(2));
-    }
-    return tokens.toArray(new String[0]);
-  }
 }
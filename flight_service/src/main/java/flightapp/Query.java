@@ -1,58 +1,218 @@
 package flightapp;
 
+import flightapp.auth.Authenticator;
+import flightapp.db.ConnectionPool;
+import flightapp.db.PooledConnection;
+import flightapp.db.ReservationIdAllocator;
+import flightapp.db.SqlErrors;
+import flightapp.db.TransactionTemplate;
 import flightapp.dto.Flight;
 import flightapp.dto.Itinerary;
+import flightapp.metrics.Metrics;
+import flightapp.search.CityDictionary;
+import flightapp.search.FlightIndex;
+import flightapp.search.Ranking;
+import flightapp.search.SearchCache;
 
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Runs queries against a back-end database
  */
 public class Query {
 
-    // Password hashing parameter constants
-    private static final int HASH_STRENGTH = 65536;
-    private static final int KEY_LENGTH = 128;
+    // Pool shared by the sessions created with the default constructor
+    private static ConnectionPool sharedPool;
 
-    // DB Connection
+    // Cities of the Flights table, which every search resolves its cities through
+    private static volatile CityDictionary cities;
+
+    // Flight index shared by every session, null when searches go to the database
+    private static volatile FlightIndex flightIndex;
+    private static boolean flightIndexLoaded = false;
+
+    // Reservation IDs, drawn from a database sequence so every process shares them
+    private static final ReservationIdAllocator reservationIds = new ReservationIdAllocator();
+
+    // Runs book, pay, cancel and the other transactional commands, retrying them on deadlock
+    private static final TransactionTemplate transactions = new TransactionTemplate(
+            Integer.getInteger("flightapp.tx.max_attempts", 5),
+            Long.getLong("flightapp.tx.base_backoff_ms", 10L),
+            Long.getLong("flightapp.tx.max_backoff_ms", 500L));
+
+    static {
+        Metrics.watch(transactions);
+    }
+
+    // Hashes passwords off the command threads and remembers recent logins
+    private static final Authenticator authenticator = new Authenticator(
+            Integer.getInteger("flightapp.auth.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+            Integer.getInteger("flightapp.auth.queue", 64),
+            Integer.getInteger("flightapp.auth.cache_max_entries", 10000),
+            Long.getLong("flightapp.auth.cache_ttl_ms", 30000L));
+
+    // Search results shared by every session, invalidated by fid when capacities change
+    private static final SearchCache searchCache = new SearchCache(
+            Integer.getInteger("flightapp.search_cache.max_entries", 10000),
+            Long.getLong("flightapp.search_cache.ttl_ms", 30000L));
+
+    // DB Connection, borrowed from the pool for the duration of one command
+    private final ConnectionPool pool;
+    private PooledConnection pooled;
     private Connection conn;
 
-    private String currentUser = "";
+    // lends each attempt of a transaction its own connection, given back before a retry waits
+    private final TransactionTemplate.Lender connections = new TransactionTemplate.Lender() {
+        @Override
+        public PooledConnection borrow() throws SQLException {
+            borrowConnection();
+            return pooled;
+        }
+
+        @Override
+        public void giveBack(PooledConnection lent) {
+            releaseConnection();
+        }
+    };
+
+    // round trips of the connections borrowed since the last takeRoundTrips()
+    private long roundTripsAtBorrow;
+    private long roundTrips = 0;
+
+    // null while no user is logged in
+    private String currentUser = null;
 
     private Map<Integer, Itinerary> itineraries = new HashMap<>();
 
     public Query() throws SQLException, IOException {
+        this(sharedPool());
     }
 
-    public void closeConnection() throws SQLException {
-        conn.close();
+    public Query(ConnectionPool pool) throws SQLException {
+        this.pool = pool;
+        loadFlightIndex(pool);
     }
 
+    /**
+     * Opens the pool described by dbconn.properties the first time it is needed.
+     */
+    private static synchronized ConnectionPool sharedPool() throws IOException {
+        if (sharedPool == null) {
+            sharedPool = Util.openPoolFromDbConn();
+        }
+        return sharedPool;
+    }
 
-    String beginTransaction = ("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE; BEGIN TRANSACTION;");
-    String commit =  ("COMMIT TRANSACTION");
-    String rollBack = ("ROLLBACK TRANSACTION");
-    String checkFlightCapacity = ("SELECT capacity FROM Flights WHERE fid = ?");
-    String trancountSQL = ( "SELECT @@TRANCOUNT AS tran_count");
+    /**
+     * Loads the shared city dictionary and flight index the first time a session is opened, or
+     * earlier when a server calls it before taking clients. Setting the system property
+     * {@code flightapp.search_index} to false keeps searches on the database.
+     */
+    public static synchronized void loadFlightIndex(ConnectionPool pool) throws SQLException {
+        if (flightIndexLoaded) {
+            return;
+        }
+        try (PooledConnection loader = pool.borrow()) {
+            cities = CityDictionary.load(loader.getConnection());
+            if (Boolean.parseBoolean(System.getProperty("flightapp.search_index", "true"))) {
+                flightIndex = FlightIndex.load(loader.getConnection(), cities);
+            }
+        }
+        flightIndexLoaded = true;
+    }
 
-    private PreparedStatement beginTransactionStatement = stringToPrepareStatement(beginTransaction);
-    private PreparedStatement commitStatement = stringToPrepareStatement(commit);
-    private PreparedStatement rollbackStatement = stringToPrepareStatement(rollBack);
-    private PreparedStatement checkFlightCapacityStatement = stringToPrepareStatement(checkFlightCapacity);
-    private final PreparedStatement tranCountStatement = stringToPrepareStatement(trancountSQL);
+    /**
+     * Ends the session. Connections belong to the pool, so this only returns one that is still
+     * on loan.
+     */
+    public void closeConnection() throws SQLException {
+        releaseConnection();
+    }
 
+    /**
+     * Borrows a connection for the current command. Statements are prepared on it as the command
+     * needs them, from its statement cache.
+     */
+    private void borrowConnection() throws SQLException {
+        pooled = pool.borrow();
+        conn = pooled.getConnection();
+        roundTripsAtBorrow = pooled.roundTrips();
+    }
 
     /**
-     * Takes a user's username and password and attempts to log the user in.
-     *
-     * @param username user's username
-     * @param password user's password
-     *
-     * @return If someone has already logged in, then return "User already logged in\n" For all other
-     *         errors, return "Login failed\n". Otherwise, return "Logged in as [username]\n".
+     * @return retry, rollback and deadlock counters of the transactional commands
      */
+    public static Map<String, TransactionTemplate.OperationStats> transactionStats() {
+        return transactions.stats();
+    }
+
+    /**
+     * @return the statements and transaction ends sent to the database since the last call
+     */
+    public long takeRoundTrips() {
+        long taken = roundTrips;
+        roundTrips = 0;
+        return taken;
+    }
+
+    /**
+     * Returns the connection of the current command to the pool. Its cached statements stay open.
+     */
+    private void releaseConnection() {
+        if (pooled != null) {
+            roundTrips += pooled.roundTrips() - roundTripsAtBorrow;
+            pooled.close();
+            pooled = null;
+            conn = null;
+        }
+    }
+
+    // Most flights of an itinerary of the multi-hop search
+    static final int MAX_LEGS = 5;
+
+    private static final String CREATE_USER = "INSERT INTO Users(username, password, balance) VALUES(?, ?, ?)";
+
+    // The search and reservation queries, answered from the FlightsByOrigin and
+    // ReservationByUsername indexes of createIndexes.sql and createIndexesEmbedded.sql.
+    static final String DIRECT_SEARCH = "SELECT TOP (?) fid,day_of_month_id,carrier_id,flight_num,origin_city,dest_city,actual_time,capacity,price "
+            + "FROM Flights "
+            + "WHERE origin_city = ? AND dest_city = ? AND day_of_month_id = ? AND canceled = 0 "
+            + "ORDER BY actual_time ASC, fid ASC";
+
+    static final String ONE_HOP_SEARCH = "SELECT TOP (?) F1.fid,F1.day_of_month_id,F1.carrier_id,F1.flight_num,F1.origin_city,F1.dest_city,F1.actual_time,F1.capacity,F1.price,"
+            + "F2.fid,F2.carrier_id,F2.flight_num,F2.origin_city,F2.dest_city,F2.actual_time,F2.capacity,F2.price "
+            + "FROM Flights AS F1, Flights AS F2 "
+            + "WHERE F1.origin_city = ? AND F1.dest_city = F2.origin_city AND F2.dest_city = ? "
+            + "AND F1.day_of_month_id = F2.day_of_month_id AND F1.month_id = F2.month_id AND F1.day_of_month_id = ? "
+            + "AND F1.canceled = 0 AND F2.canceled = 0 "
+            + "ORDER BY (F1.actual_time + F2.actual_time) ASC, F1.fid ASC, F2.fid ASC";
+
+    private static final String LEG_COLUMNS = "f.fid, f.day_of_month_id, f.carrier_id, f.flight_num, f.origin_city, "
+            + "f.dest_city, f.actual_time, f.capacity, f.price";
+
+    static final String RESERVATIONS = "SELECT r.rid, r.paid, 1 AS leg, " + LEG_COLUMNS
+            + " FROM Reservation r JOIN Flights f ON f.fid = r.fid1 WHERE r.username = ? "
+            + "UNION ALL "
+            + "SELECT r.rid, r.paid, 2 AS leg, " + LEG_COLUMNS
+            + " FROM Reservation r JOIN Flights f ON f.fid = r.fid2 WHERE r.username = ? "
+            + "UNION ALL "
+            + "SELECT r.rid, r.paid, l.leg, " + LEG_COLUMNS
+            + " FROM Reservation r JOIN ReservationLegs l ON l.rid = r.rid JOIN Flights f ON f.fid = l.fid"
+            + " WHERE r.username = ? AND r.legs > 2 "
+            + "ORDER BY rid ASC, leg ASC";
+
+    // Lengths IN lists are padded to, see parameterList
+    private static final int[] PARAMETER_LIST_SIZES = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    // The legs after the second of a reservation
+    private static final String INSERT_LEG = "INSERT INTO ReservationLegs(rid, leg, fid) VALUES(?, ?, ?)";
+    private static final String SELECT_LEGS = "SELECT leg, fid FROM ReservationLegs WHERE rid = ?";
+    private static final String DELETE_LEGS = "DELETE FROM ReservationLegs WHERE rid = ?";
+
+
     /**
      * Clear the data in any custom tables created.
      *
@@ -61,51 +221,76 @@ public class Query {
     public void clearTables() {
 
         try {
-            beginTransactionStatement.executeUpdate();
-
-            String clearTablesString =    "TRUNCATE TABLE Users" +
-                                    "TRUNCATE TABLE Itinerary" +
-                                    "TRUNCATE TABLE Reservation";
-
-            PreparedStatement clearTableStatement = stringToPrepareStatement(clearTablesString);
-
-            clearTableStatement.executeUpdate();
-
-            commitStatement.executeUpdate();
-
+            transactions.execute("clear", connections, tx -> {
+                String clearTablesString =    "TRUNCATE TABLE Users;" +
+                                        "TRUNCATE TABLE Reservation;" +
+                                        "TRUNCATE TABLE ReservationLegs;";
+
+                PreparedStatement clearTableStatement = stringToPrepareStatement(clearTablesString);
+
+                pooled.executeUpdate(clearTableStatement);
+                reservationIds.restart(pooled);
+                return null;
+            });
+            authenticator.invalidateAll();
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            releaseConnection();
         }
     }
 
 
+    /**
+     * Takes a user's username and password and attempts to log the user in.
+     *
+     * @param username user's username
+     * @param password user's password
+     *
+     * @return If someone has already logged in, then return "User already logged in\n" For all other
+     *         errors, return "Login failed\n". Otherwise, return "Logged in as [username]\n".
+     */
     public String transaction_login(String username, String password) {
-
-        if(this.currentUser == username){
+        if (this.currentUser != null) {
             return "User already logged in\n";
         }
+        if (authenticator.isCached(username, password)) {
+            currentUser = username;
+            return "Logged in as " + username + "\n";
+        }
+
+        byte[] stored;
         try {
-            String login = "SELECT * FROM Users WHERE username = ? AND password = ?;";
+            borrowConnection();
+            String login = "SELECT password FROM Users WHERE username = ?";
             PreparedStatement loginPs = stringToPrepareStatement(login);
-
-            byte[] passwordBytes = password.getBytes();
-            loginPs.clearParameters();
             loginPs.setString(1, username);
-            loginPs.setBytes(2, passwordBytes);
-
-            ResultSet result = loginPs.executeQuery();
-            //login fail
-            if (result.next() == false) {
-                return "Login failed\n";
-            } else {
-                //login success
-                currentUser = username;
+            try (ResultSet result = pooled.executeQuery(loginPs)) {
+                if (!result.next()) {
+                    return "Login failed\n";
+                }
+                stored = result.getBytes(1);
             }
         } catch (SQLException e) {
             e.printStackTrace();
+            return "Login failed\n";
+        } finally {
+            // no connection is held while the password is hashed
+            releaseConnection();
         }
 
-        return " Logging in as " + this.currentUser + "\n";
+        try {
+            if (!authenticator.verify(username, password, stored)) {
+                return "Login failed\n";
+            }
+        } catch (RejectedExecutionException e) {
+            return "Login failed\n";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Login failed\n";
+        }
+        currentUser = username;
+        return "Logged in as " + username + "\n";
     }
 
     /**
@@ -119,46 +304,36 @@ public class Query {
      * @return either "Created user {@code username}\n" or "Failed to create user\n" if failed.
      */
     public String createUser(String username, String password, int initAmount) {
+        if (initAmount < 0) {
+            return "Failed to create user\n";
+        }
         try {
-            //before actually create record in our db check if the input are valid
-            if(initAmount < 0){
-                return "Failed to create user, initAmount should be positive\n";
-            }
-
-            if(checkPasswordExist(password)) {
-                return "Failed to create user, this password is already used!!!\n";
-            }
-
-
-            //begin creation
-            beginTransactionStatement.executeUpdate();
-
-            String createCustomer = "INSERT INTO Users VALUE(?,?,?)";
-            PreparedStatement createCustomerPs = conn.prepareStatement(createCustomer);
-
-            createCustomerPs.clearParameters();
-
-            createCustomerPs.setString(1,username);
-            createCustomerPs.setBytes(2,password.getBytes());
-            createCustomerPs.setInt(3,initAmount);
-
-            int resultRows = createCustomerPs.executeUpdate();
-            commitStatement.executeUpdate();
-
-            //creation completed, check if there is an errror
-            if(resultRows==0){
-                return "Failed to create user\n";
-            }
+            // hashed before borrowing, so no connection is held while the password is hashed
+            byte[] passwordHash = authenticator.hash(password);
+
+            // the primary key on username rejects an existing user, no need to look first
+            borrowConnection();
+            PreparedStatement createCustomerPs = stringToPrepareStatement(CREATE_USER);
+            createCustomerPs.setString(1, username);
+            createCustomerPs.setBytes(2, passwordHash);
+            createCustomerPs.setInt(3, initAmount);
+            pooled.executeUpdate(createCustomerPs);
         } catch (SQLException e) {
-            e.printStackTrace();
+            if (!SqlErrors.isDuplicateKey(e)) {
+                e.printStackTrace();
+            }
+            return "Failed to create user\n";
+        } catch (RejectedExecutionException e) {
+            return "Failed to create user\n";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return "Failed to create user\n";
         } finally {
-            checkDanglingTransaction();
+            releaseConnection();
         }
-        return "User "+ username + " successfully created" + "\n";
+        return "Created user " + username + "\n";
     }
 
-
     /**
      * Implement the search function.
      *
@@ -194,131 +369,356 @@ public class Query {
     public String transaction_search(String originCity, String destinationCity, boolean directFlight, int dayOfMonth,
                                      int numberOfItineraries)
     {
-        StringBuffer sb = new StringBuffer();
+        // cities are named exactly, ignoring case; transaction_cities completes partial names
+        int origin = cities.id(originCity);
+        int dest = cities.id(destinationCity);
+        if (origin < 0 || dest < 0) {
+            return "No flights match your selection\n";
+        }
+        String from = cities.name(origin);
+        String to = cities.name(dest);
+
+        SearchCache.Key key = new SearchCache.Key(from, to, directFlight ? 1 : 2, null, dayOfMonth, dayOfMonth,
+                numberOfItineraries);
+        return cachedSearch(key, () -> flightIndex != null
+                ? searchFlightIndex(origin, dest, directFlight, dayOfMonth, numberOfItineraries)
+                : searchDatabase(from, to, directFlight, dayOfMonth, numberOfItineraries));
+    }
 
-        try {
-            int count = 0;
-            // df for direct flights
-            String dfQuery = "SELECT TOP (?) fid,day_of_month_id,carrier_id,flight_num,origin_city,dest_city,actual_time,capacity,price "
-                    + "FROM Flights "
-                    + "WHERE origin_city like ? AND dest_city like ? AND day_of_month_id = ? AND canceled = 0 "
-                    + "ORDER BY actual_time ASC, fid ASC";
-            PreparedStatement ps = conn.prepareStatement(dfQuery);
+    /**
+     * Searches for the fastest itineraries of up to {@code maxLegs} flights, all on the same day,
+     * from the given origin city to the given destination city. No itinerary visits a city twice.
+     *
+     * Unlike {@link #transaction_search(String, String, boolean, int, int)}, direct flights are not
+     * listed first: every itinerary is ranked by its total flight time, then by its flight IDs.
+     *
+     * @param maxLegs most flights of an itinerary, 1 to {@value #MAX_LEGS}
+     *
+     * @return the itineraries in the format of the other search, or "No flights match your
+     *         selection\n", or "Failed to search\n"
+     */
+    public String transaction_search(String originCity, String destinationCity, int maxLegs, int dayOfMonth,
+                                     int numberOfItineraries)
+    {
+        return transaction_search(originCity, destinationCity, maxLegs, Ranking.TIME, dayOfMonth, numberOfItineraries);
+    }
 
-            ps.clearParameters();
-            ps.setInt(1, numberOfItineraries);
-            ps.setString(2, "%"+originCity+"%");
-            ps.setString(3, "%"+destinationCity+"%");
-            ps.setInt(4, dayOfMonth);
+    /**
+     * Searches for itineraries of up to {@code maxLegs} flights, all on the same day, from the given
+     * origin city to the given destination city, ranked by {@code ranking} and then by their flight
+     * IDs. No itinerary visits a city twice. Without the flight index, the flights of the day are
+     * read into memory for the search.
+     *
+     * @param maxLegs most flights of an itinerary, 1 to {@value #MAX_LEGS}
+     * @param ranking the fastest, cheapest or fewest flights first, or, for {@link Ranking#PARETO},
+     *                only the itineraries cheaper than every faster one
+     *
+     * @return the itineraries in the format of the other search, or "No flights match your
+     *         selection\n", or "Failed to search\n"
+     */
+    public String transaction_search(String originCity, String destinationCity, int maxLegs, Ranking ranking,
+                                     int dayOfMonth, int numberOfItineraries)
+    {
+        return transaction_search(originCity, destinationCity, maxLegs, ranking, dayOfMonth, dayOfMonth,
+                numberOfItineraries);
+    }
 
-            ResultSet directFlightResult = ps.executeQuery();
+    /**
+     * Searches like {@link #transaction_search(String, String, int, Ranking, int, int)} on every
+     * day of the month from {@code firstDay} to {@code lastDay} at once, for travellers whose date
+     * is flexible. Each itinerary is still on a single day. The days are searched in parallel and
+     * their best itineraries ranked together, so the search takes about as long as a search of one
+     * day.
+     *
+     * @return the best itineraries of all the days, or "No flights match your selection\n", or
+     *         "Failed to search\n"
+     */
+    public String transaction_search(String originCity, String destinationCity, int maxLegs, Ranking ranking,
+                                     int firstDay, int lastDay, int numberOfItineraries)
+    {
+        if (maxLegs < 1 || maxLegs > MAX_LEGS || ranking == null || lastDay < firstDay) {
+            return "Failed to search\n";
+        }
+        int origin = cities.id(originCity);
+        int dest = cities.id(destinationCity);
+        if (origin < 0 || dest < 0) {
+            return "No flights match your selection\n";
+        }
 
-            while (directFlightResult.next()) {
-                int result_fid = directFlightResult.getInt("fid");
-                int result_dayOfMonth = directFlightResult.getInt("day_of_month_id");
-                String result_carrierId = directFlightResult.getString("carrier_id");
-                String result_flightNum = directFlightResult.getString("flight_num");
-                String result_originCity = directFlightResult.getString("origin_city");
-                String result_destCity = directFlightResult.getString("dest_city");
-                int result_time = directFlightResult.getInt("actual_time");
-                int result_capacity = directFlightResult.getInt("capacity");
-                int result_price = directFlightResult.getInt("price");
+        SearchCache.Key key = new SearchCache.Key(cities.name(origin), cities.name(dest), maxLegs, ranking, firstDay,
+                lastDay, numberOfItineraries);
+        return cachedSearch(key, () -> {
+            FlightIndex index = flightIndex != null
+                    ? flightIndex : FlightIndex.loadDays(conn, cities, firstDay, lastDay);
+            List<Flight[]> routes = index.routes(origin, dest, firstDay, lastDay, maxLegs, ranking,
+                    numberOfItineraries);
+            loadCapacities(routes);
+            return render(routes);
+        });
+    }
 
-                sb.append("Itinerary ").append(++count)
-                        .append(": direct flight, ")
-                        .append("ID: ").append(result_fid)
-                        .append(" Day: ").append(result_dayOfMonth)
-                        .append(" Carrier: ").append(result_carrierId)
-                        .append(" Number: ").append(result_flightNum)
-                        .append(" Origin: ").append(result_originCity)
-                        .append(" Dest: ").append(result_destCity)
-                        .append(" Duration: ").append(result_time)
-                        .append(" Capacity: ").append(result_capacity)
-                        .append(" Price: ").append(result_price)
-                        .append("\n");
+    /**
+     * A search run on a borrowed connection.
+     */
+    private interface Search {
+        SearchCache.Result run() throws SQLException;
+    }
+
+    /**
+     * Answers {@code key} from the search cache, or runs {@code search} and caches its result, and
+     * lets the session book the itineraries of the result.
+     */
+    private String cachedSearch(SearchCache.Key key, Search search) {
+        SearchCache.Result result = searchCache.get(key);
+        if (result == null) {
+            try {
+                borrowConnection();
+                long stamp = searchCache.stamp();
+                result = search.run();
+                searchCache.put(key, result, stamp);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return "Failed to search\n";
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        for (Itinerary itinerary : result.itineraries) {
+            itineraries.put(itinerary.iid, itinerary);
+        }
+        return result.text;
+    }
+
+    /**
+     * Completes a partial city name, for a user to pick the exact name a search needs.
+     *
+     * @param fuzzy if true, also completes names with typos in {@code text}: one edit is allowed
+     *              from 4 characters on, two from 8
+     *
+     * @return up to {@code limit} city names starting with {@code text}, ignoring case, one per
+     *         line, or "No cities match your selection\n"
+     */
+    public String transaction_cities(String text, boolean fuzzy, int limit) {
+        List<String> matches = fuzzy
+                ? cities.similarTo(text, Math.min(2, text.length() / 4), limit)
+                : cities.withPrefix(text, limit);
+        if (matches.isEmpty()) {
+            return "No cities match your selection\n";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String city : matches) {
+            sb.append(city).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the shared search cache
+     */
+    public static String searchCacheStats() {
+        return searchCache.stats();
+    }
 
-                itineraries.put(count, new Itinerary(count, result_fid, -1, result_price, result_dayOfMonth));
+    /**
+     * Answers a search from the in-memory flight index. Only the capacities of the returned
+     * flights are read from the database.
+     */
+    private SearchCache.Result searchFlightIndex(int origin, int dest, boolean directFlight,
+                                                 int dayOfMonth, int numberOfItineraries) throws SQLException {
+        List<Flight[]> routes = flightIndex.directFlights(origin, dest, dayOfMonth, numberOfItineraries);
+
+        //if result above is not enough for query, also show indirect flight
+        if (routes.size() < numberOfItineraries && !directFlight) {
+            routes.addAll(flightIndex.oneStopFlights(origin, dest, dayOfMonth,
+                    numberOfItineraries - routes.size()));
+        }
+        loadCapacities(routes);
+        return render(routes);
+    }
 
+    /**
+     * Numbers {@code routes} as itineraries and prints them.
+     */
+    private static SearchCache.Result render(List<Flight[]> routes) {
+        StringBuffer sb = new StringBuffer();
+        List<Itinerary> found = new ArrayList<>();
+
+        int count = 0;
+        for (Flight[] route : routes) {
+            ++count;
+            if (route.length == 1) {
+                sb.append("Itinerary ").append(count).append(": direct flight, ")
+                        .append(route[0]).append("\n");
+                found.add(new Itinerary(count, route[0].fid, -1, route[0].price, route[0].dayOfMonth));
+            } else {
+                int time = 0;
+                int price = 0;
+                int[] fids = new int[route.length];
+                for (int leg = 0; leg < route.length; leg++) {
+                    time += route[leg].time;
+                    price += route[leg].price;
+                    fids[leg] = route[leg].fid;
+                }
+                sb.append("Itinerary ").append(count)
+                        .append(": ").append(route.length).append(" flight(s), ").append(time)
+                        .append(" minutes\n");
+                for (Flight flight : route) {
+                    sb.append(flight).append("\n");
+                }
+                found.add(new Itinerary(count, fids, price, route[0].dayOfMonth));
             }
-            directFlightResult.close();
-
-            //if result above is not enough for query, also show indirect flight
-            boolean showMoreResult = (count < numberOfItineraries & !directFlight);
-            if (showMoreResult) {
-                int totalIndirectFlightToShow = numberOfItineraries - count;
-                String indfQuery = "SELECT TOP (?) F1.fid,F1.day_of_month_id,F1.carrier_id,F1.flight_num,F1.origin_city,F1.dest_city,F1.actual_time,F1.capacity,F1.price,"
-                        + "F2.fid,F2.carrier_id,F2.flight_num,F2.origin_city,F2.dest_city,F2.actual_time,F2.capacity,F2.price "
-                        + "FROM Flights AS F1, Flights AS F2 "
-                        + "WHERE F1.origin_city = ? AND F1.dest_city = F2.origin_city AND F2.dest_city = ? "
-                        + "AND F1.day_of_month_id = F2.day_of_month_id AND F1.month_id = F2.month_id AND F1.day_of_month_id = ? "
-                        + "AND F1.canceled = 0 AND F2.canceled = 0 "
-                        + "ORDER BY (F1.actual_time + F2.actual_time) ASC, F1.fid ASC, F2.fid ASC";
-
-                ps = conn.prepareStatement(indfQuery);
-                ps.clearParameters();
-                ps.setInt(1, totalIndirectFlightToShow);
-                ps.setString(2, originCity);
-                ps.setString(3, destinationCity);
-                ps.setInt(4, dayOfMonth);
-
-                ResultSet indirectFlightResult = ps.executeQuery();
-
-                while (indirectFlightResult.next()) {
-                    int r_fid1 = indirectFlightResult.getInt(1);
-                    int r_fid2 = indirectFlightResult.getInt(10);
-                    int r_dayOfMonth = indirectFlightResult.getInt(2);
-                    String r_carrier1 = indirectFlightResult.getString(3);
-                    String r_carrier2 = indirectFlightResult.getString(11);
-                    String r_flightNum1 = indirectFlightResult.getString(4);
-                    String r_flightNum2 = indirectFlightResult.getString(12);
-                    String r_org1 = indirectFlightResult.getString(5);
-                    String r_org2 = indirectFlightResult.getString(13);
-                    String r_dest1 = indirectFlightResult.getString(6);
-                    String r_dest2 = indirectFlightResult.getString(14);
-                    int r_time1 = indirectFlightResult.getInt(7);
-                    int r_time2 = indirectFlightResult.getInt(15);
-                    int r_cap1 = indirectFlightResult.getInt(8);
-                    int r_cap2 = indirectFlightResult.getInt(16);
-                    int r_price1 = indirectFlightResult.getInt(9);
-                    int r_price2 = indirectFlightResult.getInt(17);
-
-                    sb.append("Itinerary ").append(++count)
-                            .append(": 2 flight(s), ").append(r_time1 + r_time2)
-                            .append(" minutes\n")
-                            .append("ID: ").append(r_fid1)
-                            .append(" Day: ").append(r_dayOfMonth)
-                            .append(" Carrier: ").append(r_carrier1)
-                            .append(" Number: ").append(r_flightNum1)
-                            .append(" Origin: ").append(r_org1)
-                            .append(" Dest: ").append(r_dest1)
-                            .append(" Duration: ").append(r_time1)
-                            .append(" Capacity: ").append(r_cap1)
-                            .append(" Price: ").append(r_price1)
-                            .append("\n")
-                            .append("ID: ").append(r_fid2)
-                            .append(" Day: ").append(r_dayOfMonth)
-                            .append(" Carrier: ").append(r_carrier2)
-                            .append(" Number: ").append(r_flightNum2)
-                            .append(" Origin: ").append(r_org2)
-                            .append(" Dest: ").append(r_dest2)
-                            .append(" Duration: ").append(r_time2)
-                            .append(" Capacity: ").append(r_cap2)
-                            .append(" Price: ").append(r_price2)
-                            .append("\n");
-
-                    itineraries.put(count, new Itinerary(count, r_fid1, r_fid2, r_price1 + r_price2, r_dayOfMonth));
+        }
+
+        if (count == 0) {
+            sb.append("No flights match your selection\n");
+        }
+        return new SearchCache.Result(sb.toString(), found);
+    }
+
+    /**
+     * Fills in the current capacity of every flight in {@code routes} with one lookup by fid.
+     */
+    private void loadCapacities(List<Flight[]> routes) throws SQLException {
+        Map<Integer, List<Flight>> byFid = new HashMap<>();
+        for (Flight[] route : routes) {
+            for (Flight flight : route) {
+                byFid.computeIfAbsent(flight.fid, fid -> new ArrayList<>()).add(flight);
+            }
+        }
+        if (byFid.isEmpty()) {
+            return;
+        }
 
+        int[] fids = byFid.keySet().stream().mapToInt(Integer::intValue).toArray();
+        String capacityQuery = "SELECT fid, capacity FROM Flights WHERE fid IN (" + parameterList(fids.length) + ")";
+        PreparedStatement ps = stringToPrepareStatement(capacityQuery);
+        bindParameterList(ps, 1, fids);
+        try (ResultSet rs = pooled.executeQuery(ps)) {
+            while (rs.next()) {
+                for (Flight flight : byFid.get(rs.getInt(1))) {
+                    flight.capacity = rs.getInt(2);
                 }
-                indirectFlightResult.close();
             }
+        }
+    }
+
+    /**
+     * Answers a search with the direct and one-hop SQL queries.
+     */
+    private SearchCache.Result searchDatabase(String originCity, String destinationCity, boolean directFlight,
+                                              int dayOfMonth, int numberOfItineraries) throws SQLException
+    {
+        StringBuffer sb = new StringBuffer();
+        List<Itinerary> found = new ArrayList<>();
+
+        int count = 0;
+        // df for direct flights
+        PreparedStatement ps = stringToPrepareStatement(DIRECT_SEARCH);
+
+        ps.clearParameters();
+        ps.setInt(1, numberOfItineraries);
+        ps.setString(2, originCity);
+        ps.setString(3, destinationCity);
+        ps.setInt(4, dayOfMonth);
+
+        ResultSet directFlightResult = pooled.executeQuery(ps);
+
+        while (directFlightResult.next()) {
+            int result_fid = directFlightResult.getInt("fid");
+            int result_dayOfMonth = directFlightResult.getInt("day_of_month_id");
+            String result_carrierId = directFlightResult.getString("carrier_id");
+            String result_flightNum = directFlightResult.getString("flight_num");
+            String result_originCity = directFlightResult.getString("origin_city");
+            String result_destCity = directFlightResult.getString("dest_city");
+            int result_time = directFlightResult.getInt("actual_time");
+            int result_capacity = directFlightResult.getInt("capacity");
+            int result_price = directFlightResult.getInt("price");
+
+            sb.append("Itinerary ").append(++count)
+                    .append(": direct flight, ")
+                    .append("ID: ").append(result_fid)
+                    .append(" Day: ").append(result_dayOfMonth)
+                    .append(" Carrier: ").append(result_carrierId)
+                    .append(" Number: ").append(result_flightNum)
+                    .append(" Origin: ").append(result_originCity)
+                    .append(" Dest: ").append(result_destCity)
+                    .append(" Duration: ").append(result_time)
+                    .append(" Capacity: ").append(result_capacity)
+                    .append(" Price: ").append(result_price)
+                    .append("\n");
+
+            found.add(new Itinerary(count, result_fid, -1, result_price, result_dayOfMonth));
+
+        }
+        directFlightResult.close();
+
+        //if result above is not enough for query, also show indirect flight
+        boolean showMoreResult = (count < numberOfItineraries & !directFlight);
+        if (showMoreResult) {
+            int totalIndirectFlightToShow = numberOfItineraries - count;
+            ps = stringToPrepareStatement(ONE_HOP_SEARCH);
+            ps.clearParameters();
+            ps.setInt(1, totalIndirectFlightToShow);
+            ps.setString(2, originCity);
+            ps.setString(3, destinationCity);
+            ps.setInt(4, dayOfMonth);
+
+            ResultSet indirectFlightResult = pooled.executeQuery(ps);
+
+            while (indirectFlightResult.next()) {
+                int r_fid1 = indirectFlightResult.getInt(1);
+                int r_fid2 = indirectFlightResult.getInt(10);
+                int r_dayOfMonth = indirectFlightResult.getInt(2);
+                String r_carrier1 = indirectFlightResult.getString(3);
+                String r_carrier2 = indirectFlightResult.getString(11);
+                String r_flightNum1 = indirectFlightResult.getString(4);
+                String r_flightNum2 = indirectFlightResult.getString(12);
+                String r_org1 = indirectFlightResult.getString(5);
+                String r_org2 = indirectFlightResult.getString(13);
+                String r_dest1 = indirectFlightResult.getString(6);
+                String r_dest2 = indirectFlightResult.getString(14);
+                int r_time1 = indirectFlightResult.getInt(7);
+                int r_time2 = indirectFlightResult.getInt(15);
+                int r_cap1 = indirectFlightResult.getInt(8);
+                int r_cap2 = indirectFlightResult.getInt(16);
+                int r_price1 = indirectFlightResult.getInt(9);
+                int r_price2 = indirectFlightResult.getInt(17);
+
+                sb.append("Itinerary ").append(++count)
+                        .append(": 2 flight(s), ").append(r_time1 + r_time2)
+                        .append(" minutes\n")
+                        .append("ID: ").append(r_fid1)
+                        .append(" Day: ").append(r_dayOfMonth)
+                        .append(" Carrier: ").append(r_carrier1)
+                        .append(" Number: ").append(r_flightNum1)
+                        .append(" Origin: ").append(r_org1)
+                        .append(" Dest: ").append(r_dest1)
+                        .append(" Duration: ").append(r_time1)
+                        .append(" Capacity: ").append(r_cap1)
+                        .append(" Price: ").append(r_price1)
+                        .append("\n")
+                        .append("ID: ").append(r_fid2)
+                        .append(" Day: ").append(r_dayOfMonth)
+                        .append(" Carrier: ").append(r_carrier2)
+                        .append(" Number: ").append(r_flightNum2)
+                        .append(" Origin: ").append(r_org2)
+                        .append(" Dest: ").append(r_dest2)
+                        .append(" Duration: ").append(r_time2)
+                        .append(" Capacity: ").append(r_cap2)
+                        .append(" Price: ").append(r_price2)
+                        .append("\n");
+
+                found.add(new Itinerary(count, r_fid1, r_fid2, r_price1 + r_price2, r_dayOfMonth));
 
-            if (count == 0) {
-                sb.append("No flights match your selection\n");
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            indirectFlightResult.close();
         }
-        return sb.toString();
+
+        if (count == 0) {
+            sb.append("No flights match your selection\n");
+        }
+        return new SearchCache.Result(sb.toString(), found);
     }
 
 
@@ -341,6 +741,8 @@ public class Query {
      *         And if booking succeeded, return "Booked flight(s), reservation ID: [reservationId]\n"
      *         where reservationId is a unique number in the reservation system that starts from 1 and
      *         increments by 1 each time a successful reservation is made by any user in the system.
+     *         A booking refused for lack of seats uses no ID; one that fails on a database error after
+     *         taking its seats leaves its ID unused.
      */
     public String book(int itineraryId) {
 
@@ -358,86 +760,78 @@ public class Query {
         }
         Itinerary itineraryToBook = itineraries.get(itineraryId);    //itinerary(iid, fid1, fid2, price, day)
 
-        //check capacity
+        // the reservation ID is drawn once the seats are taken and kept for a retry, whose rows
+        // of the failed attempt were rolled back, so only a booking that fails after taking its
+        // seats skips an ID
+        int[] drawnRid = {0};
         try{
-            int capacity1 = 0;
-            int cap2 = 0;
-            conn.setAutoCommit(false);
-            beginTransactionStatement.executeUpdate();
-
-            //first flight check
-
-            checkFlightCapacityStatement.clearParameters();
-            checkFlightCapacityStatement.setInt(1,itineraryToBook.fid1);
-
-            ResultSet result = checkFlightCapacityStatement.executeQuery();
-            result.next();               //result should include only 1 row, moving the cursor to the first row
-            capacity1 = result.getInt(1);
+            Integer rid = transactions.execute("book", connections, tx -> {
+                //take a seat on every leg in one statement, only where a seat is left; the number of
+                //updated rows tells whether every leg still had room
+                int[] fids = itineraryToBook.fids;
+                int legs = fids.length;
+                String takeSeats = "UPDATE Flights SET capacity = capacity - 1 WHERE fid IN (" + parameterList(legs)
+                        + ") AND capacity > 0;";
+                PreparedStatement takeSeatsPs = stringToPrepareStatement(takeSeats);
+                takeSeatsPs.clearParameters();
+                bindParameterList(takeSeatsPs, 1, fids);
+                if (pooled.executeUpdate(takeSeatsPs) < legs) {
+                    tx.setRollbackOnly();
+                    return null;
+                }
 
-            if(capacity1<1){
-                rollbackStatement.executeUpdate();
-                conn.setAutoCommit(true);
-                result.close();
-                return "this flight is full, booking failed\n";
-            }
+                //update reservation
+                String updateReservation = "INSERT INTO Reservation(rid, iid, username, paid, canceled, price, fid1, fid2, day_of_month, legs) "
+                        + "VALUES(?,?,?,?,?,?,?,?,?,?);\n";
+                PreparedStatement updateReservationPs = stringToPrepareStatement(updateReservation);
 
-            if(itineraryToBook.fid2 != -1){
-                checkFlightCapacityStatement.clearParameters();
-                checkFlightCapacityStatement.setInt(1,itineraryToBook.fid2);
-                result = checkFlightCapacityStatement.executeQuery();
-                result.next();
-                cap2 = result.getInt(1);
-                if(cap2<1){
-                    rollbackStatement.executeUpdate();
-                    conn.setAutoCommit(true);
-                    result.close();
-                    return "second flight is full, book failed\n";
+                //get rid
+                if (drawnRid[0] == 0) {
+                    drawnRid[0] = reservationIds.next(pooled); //reservation id beginning from 1
                 }
-            }
+                int newRid = drawnRid[0];
+
+                updateReservationPs.setInt(1,newRid); //rid
+                updateReservationPs.setInt(2,itineraryId); //iid
+                updateReservationPs.setString(3,this.currentUser); //user
+                updateReservationPs.setInt(4,0); //paid
+                updateReservationPs.setInt(5,0); //canceled
+                updateReservationPs.setInt(6,itineraryToBook.price);//price
+                updateReservationPs.setInt(7,itineraryToBook.fid1); //legs, kept so the reservation outlives the session
+                if (legs > 1) {
+                    updateReservationPs.setInt(8,itineraryToBook.fid2);
+                } else {
+                    updateReservationPs.setNull(8,Types.INTEGER);
+                }
+                updateReservationPs.setInt(9,itineraryToBook.day); //day
+                updateReservationPs.setInt(10,legs);
+                pooled.executeUpdate(updateReservationPs);
+
+                //legs after the second
+                if (legs > 2) {
+                    PreparedStatement insertLegPs = stringToPrepareStatement(INSERT_LEG);
+                    for (int leg = 2; leg < legs; leg++) {
+                        insertLegPs.setInt(1, newRid);
+                        insertLegPs.setInt(2, leg + 1);
+                        insertLegPs.setInt(3, fids[leg]);
+                        insertLegPs.addBatch();
+                    }
+                    pooled.executeBatch(insertLegPs);
+                }
+                return newRid;
+            });
 
-            //update flights
-            String updateFlights = "UPDATE Flights SET capacity = ? WHERE fid = ?;\n";
-            PreparedStatement updateFlightsPs = conn.prepareStatement(updateFlights);
-            updateFlightsPs.clearParameters();
-            updateFlightsPs.setInt(1,capacity1-1);
-            updateFlightsPs.setInt(2,itineraryToBook.fid1);
-            updateFlightsPs.executeUpdate();
-
-            if(itineraryToBook.fid2 != -1){
-                updateFlightsPs.clearParameters();
-                updateFlightsPs.setInt(1,cap2-1);
-                updateFlightsPs.setInt(2,itineraryToBook.fid2);
-                updateFlightsPs.executeUpdate();
+            if (rid == null) {
+                return "this flight is full, booking failed\n";
             }
-
-
-            //update reservation
-            String updateReservation = "INSERT INTO Reservation VALUES(?,?,?,?,?,?);\n"; //rid, iid, username, paid, canceled, price
-            PreparedStatement updateReservationPs = conn.prepareStatement(updateReservation);
-
-            //get rid
-            String numberOfReservation = "SELECT COUNT(*) FROM Reservation;\n";
-            PreparedStatement numberOfReservationPs = conn.prepareStatement(numberOfReservation);
-            result = numberOfReservationPs.executeQuery();
-            result.next();
-            int rid =  result.getInt(1); //reservation id beginning from 0
-
-            updateReservationPs.setInt(1,rid); //rid
-            updateReservationPs.setInt(2,itineraryId); //iid
-            updateReservationPs.setString(3,this.currentUser); //user
-            updateReservationPs.setInt(4,0); //paid
-            updateReservationPs.setInt(5,0); //canceled
-            updateReservationPs.setInt(6,itineraryToBook.price);//price
-            updateReservationPs.executeUpdate();
-
-            commitStatement.executeUpdate();
-            conn.setAutoCommit(true);
-            result.close();
+            invalidateSearches(itineraryToBook);
             return "Booked flight(s), reservation ID: " + rid + "\n";
 
         }catch(SQLException e) {
             e.printStackTrace();
             return "booking failed\n";
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -460,72 +854,71 @@ public class Query {
      *         [balance]\n" where [balance] is the remaining balance in the user's account.
      */
     public String transaction_pay(int reservationId) {
+        if (this.currentUser == null) {
+            return "Cannot pay, not logged in\n";
+        }
 
         try {
-            conn.setAutoCommit(false);
-            beginTransactionStatement.executeUpdate();
-            //check validity of reservationId
-            String checkRid = "SELECT rid, price FROM Reservation WHERE rid = ? AND username = ?;";
-            PreparedStatement checkRidPs = conn.prepareStatement(checkRid);
-
-            checkRidPs.clearParameters();
-            checkRidPs.setInt(1,reservationId);
-            checkRidPs.setString(2, this.currentUser);
-
-            ResultSet result = checkRidPs.executeQuery();
-
-            if(!result.next()){
-                rollbackStatement.executeUpdate();
-                conn.setAutoCommit(true);
-                result.close();
-                return "the reservation: "+ reservationId + " is not found";
-            }
-
-            int paymentDue = result.getInt(2);
+            return transactions.execute("pay", connections, tx -> {
+                //check validity of reservationId
+                String checkRid = "SELECT rid, price FROM Reservation WHERE rid = ? AND username = ? AND paid = 0;";
+                PreparedStatement checkRidPs = stringToPrepareStatement(checkRid);
+
+                checkRidPs.clearParameters();
+                checkRidPs.setInt(1,reservationId);
+                checkRidPs.setString(2, this.currentUser);
+
+                int paymentDue;
+                try (ResultSet result = pooled.executeQuery(checkRidPs)) {
+                    if(!result.next()){
+                        tx.setRollbackOnly();
+                        return "Cannot find unpaid reservation " + reservationId + " under user: " + currentUser + "\n";
+                    }
+                    paymentDue = result.getInt(2);
+                }
 
 
-            //check balance
-            String checkbalance = "SELECT balance FROM Users WHERE username = ?;";
-            PreparedStatement checkbalanceStatement = conn.prepareStatement(checkbalance);
-            checkbalanceStatement.clearParameters();
-            checkbalanceStatement.setString(1, this.currentUser);
+                //check balance
+                String checkbalance = "SELECT balance FROM Users WHERE username = ?;";
+                PreparedStatement checkbalanceStatement = stringToPrepareStatement(checkbalance);
+                checkbalanceStatement.clearParameters();
+                checkbalanceStatement.setString(1, this.currentUser);
 
-            result = checkbalanceStatement.executeQuery();
-            result.next();
-            int balance = result.getInt(1);
-            if (balance < paymentDue) {
-                rollbackStatement.executeUpdate();
-                conn.setAutoCommit(true);
-                result.close();
-                return "balance is not enough to cover the payment of "+ paymentDue + "\ncurrent balance: "
-                        + balance +"\n";
-            }
+                int balance;
+                try (ResultSet result = pooled.executeQuery(checkbalanceStatement)) {
+                    result.next();
+                    balance = result.getInt(1);
+                }
+                if (balance < paymentDue) {
+                    tx.setRollbackOnly();
+                    return "User has only " + balance + " in account but itinerary costs " + paymentDue + "\n";
+                }
 
-            //update user balance
-            String updateUser = "UPDATE Users SET balance = ? WHERE username = ?;";
-            PreparedStatement updateUserPs = conn.prepareStatement(updateUser);
-            updateUserPs.clearParameters();
-            updateUserPs.setInt(1, balance - paymentDue);
-            updateUserPs.setString(2, this.currentUser);
-            updateUserPs.executeUpdate();
+                //update user balance
+                String updateUser = "UPDATE Users SET balance = ? WHERE username = ?;";
+                PreparedStatement updateUserPs = stringToPrepareStatement(updateUser);
+                updateUserPs.clearParameters();
+                updateUserPs.setInt(1, balance - paymentDue);
+                updateUserPs.setString(2, this.currentUser);
+                pooled.executeUpdate(updateUserPs);
 
 
-            //update reservation
-            String updateReservation = "UPDATE Reservation SET paid = ? WHERE rid = ?;";
-            PreparedStatement updateReservationPs = conn.prepareStatement(updateReservation);
+                //update reservation
+                String updateReservation = "UPDATE Reservation SET paid = ? WHERE rid = ?;";
+                PreparedStatement updateReservationPs = stringToPrepareStatement(updateReservation);
 
-            updateReservationPs.clearParameters();
-            updateReservationPs.setInt(1, 1);
-            updateReservationPs.setInt(2, reservationId);
-            updateReservationPs.executeUpdate();
-            commitStatement.executeUpdate();
-            conn.setAutoCommit(true);
-            result.close();
+                updateReservationPs.clearParameters();
+                updateReservationPs.setInt(1, 1);
+                updateReservationPs.setInt(2, reservationId);
+                pooled.executeUpdate(updateReservationPs);
 
-            return "payment succeed, payement: " + paymentDue + " ReservationID: " + reservationId;
+                return "Paid reservation: " + reservationId + " remaining balance: " + (balance - paymentDue) + "\n";
+            });
         } catch (SQLException e) {
             e.printStackTrace();
-            return "failed to pay the reservation";
+            return "Failed to pay for reservation " + reservationId + "\n";
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -561,95 +954,76 @@ public class Query {
         }
 
         try {
-            conn.setAutoCommit(false);
-            beginTransactionStatement.executeUpdate();
-
-            String resQuery = "SELECT rid, iid, paid FROM Reservation WHERE username = ?;\n";
-            PreparedStatement ps = conn.prepareStatement(resQuery);
-            ps.clearParameters();
-            ps.setString(1, this.currentUser);
-            ResultSet rs = ps.executeQuery();
-
-            StringBuffer sb = new StringBuffer();
-            while (rs.next()) {
-                int r_rid = rs.getInt(1);
-                int r_iid = rs.getInt(2);
-                int r_paid = rs.getInt(3);
-                if (!itineraries.containsKey(r_iid)) {
-                    continue;
-                }
-                String paid = (r_paid == 1) ? "true" : "false";
-
-                sb.append("Reservation ").append(r_rid).append(" paid: ").append(paid).append(":\n");
-                // because itineraries is a temporal repository.
-
-                Itinerary currentItinerary = itineraries.get(r_iid);
-                int r_fid1 = currentItinerary.fid1;
-                int r_fid2 = currentItinerary.fid2;
-                String flightQuery = "SELECT fid, day_of_month_id, carrier_id, flight_num, origin_city,"
-                        + "dest_city, actual_time, capacity, price FROM Flights WHERE fid = ?;\n";
-                ps = conn.prepareStatement(flightQuery);
+            String reservations = transactions.execute("reservations", connections, tx -> {
+                // every leg of every reservation of the user in one query
+                PreparedStatement ps = stringToPrepareStatement(RESERVATIONS);
                 ps.clearParameters();
-                ps.setInt(1, r_fid1);
-                ResultSet frs = ps.executeQuery();  // flight resultset
-                frs.next();
-
-                int rf_fid = frs.getInt(1);  // rf for result [from] flight
-                int rf_day_of_month_id = frs.getInt(2);
-                String rf_cid = frs.getString(3);
-                int rf_flight_num = frs.getInt(4);
-                String rf_org_city = frs.getString(5);
-                String rf_dest_city = frs.getString(6);
-                int rf_actual_time = frs.getInt(7);
-                int rf_capacity = frs.getInt(8);
-                int rf_price = frs.getInt(9);
-
-                sb.append("ID: ").append(rf_fid).append(" Day: ").append(rf_day_of_month_id)
-                        .append(" Carrier: ").append(rf_cid).append(" Number: ").append(rf_flight_num)
-                        .append(" Origin: ").append(rf_org_city).append(" Dest: ").append(rf_dest_city)
-                        .append(" Duration: ").append(rf_actual_time).append(" Capacity: ").append(rf_capacity)
-                        .append(" Price: ").append(rf_price).append("\n");
-
-                if (r_fid2 != -1) {
-                    ps = conn.prepareStatement(flightQuery);
-                    ps.clearParameters();
-                    ps.setInt(1, r_fid2);
-                    frs = ps.executeQuery();
-                    frs.next();
-
-                    rf_fid = frs.getInt(1);
-                    rf_day_of_month_id = frs.getInt(2);
-                    rf_cid = frs.getString(3);
-                    rf_flight_num = frs.getInt(4);
-                    rf_org_city = frs.getString(5);
-                    rf_dest_city = frs.getString(6);
-                    rf_actual_time = frs.getInt(7);
-                    rf_capacity = frs.getInt(8);
-                    rf_price = frs.getInt(9);
-
-                    sb.append("ID: ").append(rf_fid).append(" Day: ").append(rf_day_of_month_id)
-                            .append(" Carrier: ").append(rf_cid).append(" Number: ").append(rf_flight_num)
-                            .append(" Origin: ").append(rf_org_city).append(" Dest: ").append(rf_dest_city)
-                            .append( "Duration: ").append(rf_actual_time).append(" Capacity: ").append(rf_actual_time)
-                            .append(" Price: ").append(rf_price).append("\n");
-
-                    frs.close();
+                ps.setString(1, this.currentUser);
+                ps.setString(2, this.currentUser);
+                ps.setString(3, this.currentUser);
+
+                StringBuilder sb = new StringBuilder();
+                try (ResultSet rs = pooled.executeQuery(ps)) {
+                    while (rs.next()) {
+                        if (rs.getInt(3) == 1) {
+                            sb.append("Reservation ").append(rs.getInt(1)).append(" paid: ")
+                                    .append(rs.getInt(2) == 1 ? "true" : "false").append(":\n");
+                        }
+                        sb.append("ID: ").append(rs.getInt(4)).append(" Day: ").append(rs.getInt(5))
+                                .append(" Carrier: ").append(rs.getString(6)).append(" Number: ").append(rs.getString(7))
+                                .append(" Origin: ").append(rs.getString(8)).append(" Dest: ").append(rs.getString(9))
+                                .append(" Duration: ").append(rs.getInt(10)).append(" Capacity: ").append(rs.getInt(11))
+                                .append(" Price: ").append(rs.getInt(12)).append("\n");
+                    }
                 }
-            }
-            rs.close();
-            if (sb.toString().equals("")) {
-                rollbackStatement.executeUpdate();
-                conn.setAutoCommit(true);
-                return "No reservations found\n";
-            } else {
-                commitStatement.executeUpdate();
-                conn.setAutoCommit(true);
                 return sb.toString();
+            });
+            if (reservations.equals("")) {
+                return "No reservations found\n";
             }
+            return reservations;
 
         } catch (SQLException e) {
             e.printStackTrace();
             return "Failed to retrieve reservations\n";
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * @return the comma separated parameter markers of an IN list of {@code count} values, padded
+     *         to the next of a few fixed sizes so that lists of different lengths share one SQL
+     *         text, one statement cache slot and one plan
+     */
+    private static String parameterList(int count) {
+        int size = parameterListSize(count);
+        StringBuilder sb = new StringBuilder(2 * size);
+        for (int i = 0; i < size; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    private static int parameterListSize(int count) {
+        for (int size : PARAMETER_LIST_SIZES) {
+            if (count <= size) {
+                return size;
+            }
+        }
+        int largest = PARAMETER_LIST_SIZES[PARAMETER_LIST_SIZES.length - 1];
+        return (count + largest - 1) / largest * largest;
+    }
+
+    /**
+     * Binds {@code values} to the markers of {@link #parameterList} starting at parameter
+     * {@code first}, repeating the last value in the padding, which leaves the IN list matching
+     * the same rows.
+     */
+    private static void bindParameterList(PreparedStatement ps, int first, int[] values) throws SQLException {
+        int size = parameterListSize(values.length);
+        for (int i = 0; i < size; i++) {
+            ps.setInt(first + i, values[Math.min(i, values.length - 1)]);
         }
     }
 
@@ -672,142 +1046,114 @@ public class Query {
 
 
         try {
-            conn.setAutoCommit(false);
-            beginTransactionStatement.executeUpdate();
+            Itinerary canceled = transactions.execute("cancel", connections, tx -> {
+                //only a reservation of the logged in user can be canceled, and refunded to them
+                String resQuery = "SELECT rid,paid, price, iid, fid1, fid2, day_of_month, legs FROM Reservation "
+                        + "WHERE rid = ? AND username = ?";
+                PreparedStatement resQueryPs = stringToPrepareStatement(resQuery);
+                resQueryPs.clearParameters();
+                resQueryPs.setInt(1,reservationId);
+                resQueryPs.setString(2,currentUser);
+                ResultSet result = pooled.executeQuery(resQueryPs);
+
+                if(!result.next()){
+                    result.close();
+                    tx.setRollbackOnly();
+                    return null;
+                }
 
+                boolean paid = result.getInt(2) == 1? true:false;
+                int price = result.getInt(3);
+                int[] fids = new int[result.getInt(8)];
+                fids[0] = result.getInt(5);
+                if (fids.length > 1) {
+                    fids[1] = result.getInt(6);
+                }
+                Itinerary itinerary = new Itinerary(result.getInt(4), fids, price, result.getInt(7));
+                result.close();
 
-            String resQuery = "SELECT rid,paid, price FROM Reservation WHERE rid = ?";
-            PreparedStatement resQueryPs = conn.prepareStatement(resQuery);
-            resQueryPs.clearParameters();
-            resQueryPs.setInt(1,reservationId);
-            ResultSet result = resQueryPs.executeQuery();
+                if (fids.length > 2) {
+                    PreparedStatement legsPs = stringToPrepareStatement(SELECT_LEGS);
+                    legsPs.clearParameters();
+                    legsPs.setInt(1, reservationId);
+                    try (ResultSet legs = pooled.executeQuery(legsPs)) {
+                        while (legs.next()) {
+                            fids[legs.getInt(1) - 1] = legs.getInt(2);
+                        }
+                    }
+                }
 
-            if(!result.next()){
-                rollbackStatement.executeUpdate();
-                conn.setAutoCommit(true);
-                return " Failed to cancel reservation " +  reservationId + "\n";
-            }
+                //get current balance
+                String getBalance = "SELECT balance FROM Users WHERE username = ?";
+                PreparedStatement getBalancePs = stringToPrepareStatement(getBalance);
+                getBalancePs.clearParameters();
+                getBalancePs.setString(1,currentUser);
+                ResultSet resultBalance = pooled.executeQuery(getBalancePs);
+                resultBalance.next();
+                int currentBalance = resultBalance.getInt(1);
+                resultBalance.close();
+
+
+                if(paid){
+                    String refundUser = "UPDATE Users SET balance = ? WHERE username = ?";
+                    PreparedStatement refundUserPs = stringToPrepareStatement(refundUser);
+                    refundUserPs.clearParameters();
+                    refundUserPs.setInt(1,currentBalance + price);
+                    refundUserPs.setString(2,currentUser);
+                    pooled.executeUpdate(refundUserPs);
+                }
 
-            boolean paid = result.getInt(2) == 1? true:false;
-            int price = result.getInt(3);
-
-            //get current balance
-            String getBalance = "SELECT balance FROM Users WHERE username = ?";
-            PreparedStatement getBalancePs = conn.prepareStatement(getBalance);
-            getBalancePs.clearParameters();
-            getBalancePs.setString(1,currentUser);
-            ResultSet resultBalance = getBalancePs.executeQuery();
-            resultBalance.next();
-            int currentBalance = resultBalance.getInt(1);
-
-
-            if(paid){
-                String refundUser = "UPDATE Users SET balance = ? WHERE username = ?";
-                PreparedStatement refundUserPs = conn.prepareStatement(refundUser);
-                refundUserPs.clearParameters();
-                refundUserPs.setInt(1,currentBalance + price);
-                refundUserPs.setString(2,currentUser);
-                refundUserPs.executeUpdate();
-            }
+                //remove canceled Reservation from Reservation table
+                String removeCanceled = "DELETE FROM Reservation WHERE rid = ?";
+                PreparedStatement removeCanceledPs = stringToPrepareStatement(removeCanceled);
+                removeCanceledPs.clearParameters();
+                removeCanceledPs.setInt(1,reservationId);
+                pooled.executeUpdate(removeCanceledPs);
+                if (fids.length > 2) {
+                    PreparedStatement removeLegsPs = stringToPrepareStatement(DELETE_LEGS);
+                    removeLegsPs.clearParameters();
+                    removeLegsPs.setInt(1, reservationId);
+                    pooled.executeUpdate(removeLegsPs);
+                }
+
+                //give the seats back
+                String releaseSeats = "UPDATE Flights SET capacity = capacity + 1 WHERE fid IN (" + parameterList(fids.length) + ")";
+                PreparedStatement releaseSeatsPs = stringToPrepareStatement(releaseSeats);
+                releaseSeatsPs.clearParameters();
+                bindParameterList(releaseSeatsPs, 1, fids);
+                pooled.executeUpdate(releaseSeatsPs);
 
-            //remove canceled Reservation from Reservation table
-            String removeCanceled = "DELETE FROM Reservation WHERE rid = ?";
-            PreparedStatement removeCanceledPs = conn.prepareStatement(removeCanceled);
-            removeCanceledPs.clearParameters();
-            removeCanceledPs.setInt(1,reservationId);
-            removeCanceledPs.executeUpdate();
+                return itinerary;
+            });
 
-            commitStatement.executeUpdate();
-            conn.setAutoCommit(true);
+            if (canceled == null) {
+                return "Failed to cancel reservation " +  reservationId + "\n";
+            }
+            invalidateSearches(canceled);
 
         }catch(SQLException e){
             return "Failed to cancel reservation " + reservationId + "\n";
         } finally {
-            checkDanglingTransaction();
+            releaseConnection();
         }
         return "Canceled reservation " +  reservationId + "\n";
     }
 
     /**
-     * Example utility function that uses prepared statements
+     * Drops the cached searches that show a flight of {@code itinerary}, whose capacity changed.
      */
-    private int checkFlightCapacity(int fid) throws SQLException {
-            checkFlightCapacityStatement.clearParameters();
-            checkFlightCapacityStatement.setInt(1, fid);
-            ResultSet results = checkFlightCapacityStatement.executeQuery();
-            results.next();
-            int capacity = results.getInt("capacity");
-            results.close();
-
-            return capacity;
-            }
-
-    /**
-     * Throw IllegalStateException if transaction not completely complete, rollback.
-     *
-     */
-    private void checkDanglingTransaction() {
-            try {
-            try (ResultSet rs = tranCountStatement.executeQuery()) {
-            rs.next();
-            int count = rs.getInt("tran_count");
-            if (count > 0) {
-            throw new IllegalStateException(
-            "Transaction not fully commit/rollback. Number of transaction in process: " + count);
-            }
-            } finally {
-            conn.setAutoCommit(true);
-            }
-            } catch (SQLException e) {
-            throw new IllegalStateException("Database error", e);
-            }
-            }
-
-    private static boolean isDeadLock(SQLException ex) {
-            return ex.getErrorCode() == 1205;
-            }
-
-
-
-
-
-
-
-
-    private PreparedStatement stringToPrepareStatement(String str) throws SQLException {
-        return conn.prepareStatement(str);
+    private static void invalidateSearches(Itinerary itinerary) {
+        for (int fid : itinerary.fids) {
+            searchCache.invalidate(fid);
+        }
     }
 
-
     /**
-     * Helper method to check if input password is existing in database.
-     * @param passwordToCheck
-     * @return if already exist, return true, else false.
-     * @throws SQLException
+     * Return the cached statement for {@code str} on the borrowed connection. Cached statements
+     * are reused by later commands and must not be closed, and are executed through the
+     * connection's execute methods so that they count as round trips.
      */
-
-    private boolean checkPasswordExist(String passwordToCheck) throws SQLException {
-        byte[] passwordBytes = passwordToCheck.getBytes();
-
-        String checkValidPassword = "(SELECT * FROM Users WHERE password = ?)";
-        PreparedStatement checkValidPasswordPs = conn.prepareStatement(checkValidPassword);
-
-        checkValidPasswordPs.clearParameters();
-        checkValidPasswordPs.setBytes(1,passwordBytes);
-
-        ResultSet result = checkValidPasswordPs.executeQuery();
-
-        if(result.next()){
-//                return "password has already existed, please change another\n";
-            return true;
-        }
-        result.close();
-        return false;
+    private PreparedStatement stringToPrepareStatement(String str) throws SQLException {
+        return pooled.prepareStatement(str);
     }
-
-
 }
-
-
-
-
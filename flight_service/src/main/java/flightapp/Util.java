@@ -1,7 +1,15 @@
 package flightapp;
 
+import flightapp.db.ConnectionFactory;
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.SyntheticFlights;
+
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -17,13 +25,94 @@ public class Util {
      */
     public static Connection openConnectionFromDbConn() throws SQLException, IOException {
         // Connect to the database with the provided connection configuration
-        Properties configProps = new Properties();
-        configProps.load(new FileInputStream("dbconn.properties"));
+        return connectionFactory(loadDbConn()).open();
+    }
+
+    /**
+     * Return a connection pool over the database in dbconn.properties. The optional
+     * flightapp.pool.* keys size the pool. Leak detection is off unless
+     * flightapp.pool.leak_threshold_ms is set, since it records a stack trace on every borrow.
+     *
+     * @throws IOException
+     */
+    public static ConnectionPool openPoolFromDbConn() throws IOException {
+        Properties configProps = loadDbConn();
+        return new ConnectionPool(
+                connectionFactory(configProps),
+                Integer.parseInt(configProps.getProperty("flightapp.pool.max_size", "20")),
+                Integer.parseInt(configProps.getProperty("flightapp.pool.statement_cache_size", "64")),
+                Long.parseLong(configProps.getProperty("flightapp.pool.borrow_timeout_ms", "30000")),
+                Long.parseLong(configProps.getProperty("flightapp.pool.validation_interval_ms", "5000")),
+                Long.parseLong(configProps.getProperty("flightapp.pool.leak_threshold_ms", "0")));
+    }
+
+    /**
+     * Return the connection provider chosen by flightapp.provider: "sqlserver", the default,
+     * connects to the server in flightapp.server_url; "embedded" opens an in-process database,
+     * creating and filling it first if it is empty.
+     *
+     * @throws IOException
+     */
+    private static ConnectionFactory connectionFactory(Properties configProps) throws IOException {
+        String provider = configProps.getProperty("flightapp.provider", "sqlserver");
+        if (provider.equals("embedded")) {
+            return embeddedDatabase(configProps);
+        }
+        if (!provider.equals("sqlserver")) {
+            throw new IllegalArgumentException("Unknown flightapp.provider " + provider);
+        }
         String serverURL = configProps.getProperty("flightapp.server_url");
         String dbName = configProps.getProperty("flightapp.database_name");
         String adminName = configProps.getProperty("flightapp.username");
         String password = configProps.getProperty("flightapp.password");
-        return openConnectionFromCredential(serverURL, dbName, adminName, password);
+        return () -> openConnectionFromCredential(serverURL, dbName, adminName, password);
+    }
+
+    /**
+     * Opens the embedded database, kept in the file flightapp.embedded.path or in memory, and
+     * bootstraps it with flightapp.embedded.flights synthetic flights generated from
+     * flightapp.embedded.seed, indexed by flightapp.embedded.create_indexes unless that is empty.
+     *
+     * @throws IOException
+     */
+    private static synchronized ConnectionFactory embeddedDatabase(Properties configProps) throws IOException {
+        String url = EmbeddedDatabase.url("flightapp", configProps.getProperty("flightapp.embedded.path"));
+        ConnectionFactory factory = EmbeddedDatabase.connectionFactory(url);
+        SyntheticFlights flights = SyntheticFlights.generate(
+                Integer.parseInt(configProps.getProperty("flightapp.embedded.flights", "20000")),
+                Integer.parseInt(configProps.getProperty("flightapp.embedded.capacity", "100")),
+                Long.parseLong(configProps.getProperty("flightapp.embedded.seed", "42")));
+        String createIndexes = configProps.getProperty("flightapp.embedded.create_indexes", "createIndexesEmbedded.sql");
+        try (Connection conn = factory.open()) {
+            EmbeddedDatabase.bootstrap(conn,
+                    Paths.get(configProps.getProperty("flightapp.embedded.create_tables", "createTables.sql")),
+                    createIndexes.isEmpty() ? null : Paths.get(createIndexes), flights);
+        } catch (SQLException e) {
+            throw new IOException("Could not bootstrap the embedded database", e);
+        }
+        return factory;
+    }
+
+    /**
+     * Reads dbconn.properties, which may be missing when the embedded database is used. System
+     * properties of the same name override the file.
+     *
+     * @throws IOException
+     */
+    private static Properties loadDbConn() throws IOException {
+        Properties configProps = new Properties();
+        Path file = Paths.get("dbconn.properties");
+        if (Files.exists(file) || !System.getProperty("flightapp.provider", "").equals("embedded")) {
+            try (FileInputStream in = new FileInputStream(file.toFile())) {
+                configProps.load(in);
+            }
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("flightapp.")) {
+                configProps.setProperty(key, System.getProperty(key));
+            }
+        }
+        return configProps;
     }
 
 
@@ -0,0 +1,194 @@
+package flightapp.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes and verifies passwords with salted PBKDF2.
+ *
+ * A stored password is a random salt followed by the PBKDF2 hash of the password with that salt.
+ * Deriving a hash is deliberately slow, so it runs on a small pool of its own threads with a
+ * bounded queue: a burst of logins waits for, or is refused by, that pool instead of taking the
+ * CPU from the threads running other commands.
+ *
+ * Successful verifications are remembered for a short time, so a user logging in again, as after
+ * a reconnect, needs neither the database nor a hash. The cache keeps a keyed digest of the
+ * password, never the password itself, and the key is random to the process.
+ */
+public class Authenticator {
+
+    // Password hashing parameter constants
+    private static final int HASH_STRENGTH = 65536;
+    private static final int KEY_LENGTH = 128;
+    private static final int SALT_LENGTH = 16;
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final ThreadPoolExecutor verifiers;
+    private final int maxCachedUsers;
+    private final long cacheTtlNanos;
+    private final LinkedHashMap<String, CachedLogin> cache;
+    private final SecretKeySpec cacheKey;
+
+    /**
+     * @param threads        threads hashing passwords
+     * @param queueSize      hashes that may wait for a thread before more are refused
+     * @param maxCachedUsers users whose last successful login is remembered
+     * @param cacheTtlMillis how long a successful login is remembered, 0 to remember none
+     */
+    public Authenticator(int threads, int queueSize, int maxCachedUsers, long cacheTtlMillis) {
+        AtomicInteger count = new AtomicInteger();
+        this.verifiers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "password-hasher-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.maxCachedUsers = maxCachedUsers;
+        this.cacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(cacheTtlMillis);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        this.cacheKey = new SecretKeySpec(key, "HmacSHA256");
+    }
+
+    /**
+     * @return a new salt followed by the hash of {@code password} with it, computed on the calling
+     *         thread
+     */
+    public static byte[] saltedHash(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] hash = derive(password, salt);
+        byte[] stored = Arrays.copyOf(salt, SALT_LENGTH + hash.length);
+        System.arraycopy(hash, 0, stored, SALT_LENGTH, hash.length);
+        return stored;
+    }
+
+    /**
+     * {@link #saltedHash(String)} on the hashing threads.
+     *
+     * @throws RejectedExecutionException if too many hashes are already waiting
+     */
+    public byte[] hash(String password) throws InterruptedException {
+        return await(verifiers.submit(() -> saltedHash(password)));
+    }
+
+    /**
+     * @return true if {@code username} logged in with {@code password} recently and the login is
+     *         still remembered
+     */
+    public boolean isCached(String username, String password) {
+        if (cacheTtlNanos <= 0) {
+            return false;
+        }
+        byte[] digest = digest(password);
+        synchronized (cache) {
+            CachedLogin login = cache.get(username);
+            if (login == null) {
+                return false;
+            }
+            if (System.nanoTime() - login.verifiedAt > cacheTtlNanos) {
+                cache.remove(username);
+                return false;
+            }
+            return MessageDigest.isEqual(login.digest, digest);
+        }
+    }
+
+    /**
+     * Checks {@code password} against {@code stored}, a salted hash of {@link #saltedHash(String)},
+     * on the hashing threads, and remembers the login if it matches.
+     *
+     * @throws RejectedExecutionException if too many hashes are already waiting
+     */
+    public boolean verify(String username, String password, byte[] stored) throws InterruptedException {
+        if (stored == null || stored.length <= SALT_LENGTH) {
+            return false;
+        }
+        boolean matches = await(verifiers.submit(() -> {
+            byte[] salt = Arrays.copyOfRange(stored, 0, SALT_LENGTH);
+            byte[] hash = Arrays.copyOfRange(stored, SALT_LENGTH, stored.length);
+            return MessageDigest.isEqual(derive(password, salt), hash);
+        }));
+        if (matches && cacheTtlNanos > 0) {
+            byte[] digest = digest(password);
+            synchronized (cache) {
+                cache.put(username, new CachedLogin(digest, System.nanoTime()));
+                while (cache.size() > maxCachedUsers) {
+                    cache.remove(cache.keySet().iterator().next());
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Forgets every remembered login, e.g. because the users were deleted.
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private byte[] digest(String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(cacheKey);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static final class CachedLogin {
+        final byte[] digest;
+        final long verifiedAt;
+
+        CachedLogin(byte[] digest, long verifiedAt) {
+            this.digest = digest;
+            this.verifiedAt = verifiedAt;
+        }
+    }
+}
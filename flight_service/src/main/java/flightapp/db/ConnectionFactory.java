@@ -0,0 +1,18 @@
+package flightapp.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Opens new physical connections for a {@link ConnectionPool}.
+ */
+@FunctionalInterface
+public interface ConnectionFactory {
+
+    /**
+     * Return a new, open connection.
+     *
+     * @throws SQLException
+     */
+    Connection open() throws SQLException;
+}
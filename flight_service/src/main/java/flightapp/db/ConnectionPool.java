@@ -0,0 +1,301 @@
+package flightapp.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of database connections shared by every session.
+ *
+ * Waiting borrowers are served in arrival order. Idle connections are validated before they are
+ * handed out again if they have not been used recently, and connections held for longer than the
+ * leak threshold are reported together with the stack trace of the borrower.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long borrowTimeoutMillis;
+    private final long validationIntervalNanos;
+    private final long leakThresholdNanos;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed = false;
+
+    // metrics
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder discardedCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param factory                  opens new physical connections
+     * @param maxSize                  maximum number of physical connections
+     * @param statementCacheSize       prepared statements cached per physical connection
+     * @param borrowTimeoutMillis      how long {@link #borrow()} waits for a free connection
+     * @param validationIntervalMillis idle connections unused for longer than this are validated
+     *                                 before reuse
+     * @param leakThresholdMillis      loans held for longer than this are reported with the stack
+     *                                 of their borrower, 0 to disable; while enabled, every borrow
+     *                                 pays for capturing that stack
+     */
+    public ConnectionPool(ConnectionFactory factory, int maxSize, int statementCacheSize, long borrowTimeoutMillis,
+                          long validationIntervalMillis, long leakThresholdMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.statementCacheSize = statementCacheSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+        this.permits = new Semaphore(maxSize, true);
+
+        if (leakThresholdMillis > 0) {
+            long period = Math.max(1000, leakThresholdMillis / 2);
+            leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting up to the borrow timeout for one to become free.
+     *
+     * @throws SQLTimeoutException if no connection became free in time
+     * @throws SQLException        if a new connection could not be opened
+     */
+    public PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        waiting.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+            recordWait(System.nanoTime() - start);
+        }
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis
+                    + " ms waiting for a connection, " + stats());
+        }
+
+        try {
+            PooledConnection pooled = takeHealthyIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(this, factory.open(), statementCacheSize);
+                createdCount.increment();
+            }
+            pooled.borrowedAt = System.nanoTime();
+            pooled.borrowedBy = leakDetector == null ? null : new Throwable("Connection borrowed here");
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            borrowCount.increment();
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes back a loan. Connections that are broken or returned after the pool was closed are
+     * discarded instead of being kept idle.
+     */
+    void release(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            return;
+        }
+        pooled.borrowedBy = null;
+        pooled.lastUsedAt = System.nanoTime();
+        if (!closed && reset(pooled)) {
+            synchronized (idle) {
+                idle.addFirst(pooled);
+            }
+        } else {
+            discard(pooled);
+        }
+        permits.release();
+    }
+
+    /**
+     * @return a snapshot of the pool metrics
+     */
+    public Stats stats() {
+        int idleCount;
+        synchronized (idle) {
+            idleCount = idle.size();
+        }
+        long borrows = borrowCount.sum();
+        return new Stats(maxSize, borrowed.size(), idleCount, waiting.get(), borrows, timeoutCount.sum(),
+                createdCount.sum(), discardedCount.sum(), leakCount.sum(),
+                borrows == 0 ? 0 : totalWaitNanos.sum() / borrows, maxWaitNanos.get());
+    }
+
+    /**
+     * Closes the idle connections. Connections still on loan are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        synchronized (idle) {
+            for (PooledConnection pooled : idle) {
+                discard(pooled);
+            }
+            idle.clear();
+        }
+    }
+
+    private PooledConnection takeHealthyIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return null;
+            }
+            if (isHealthy(pooled)) {
+                return pooled;
+            }
+            discard(pooled);
+        }
+    }
+
+    private boolean isHealthy(PooledConnection pooled) {
+        try {
+            Connection connection = pooled.getConnection();
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (System.nanoTime() - pooled.lastUsedAt < validationIntervalNanos) {
+                return true;
+            }
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Undoes anything a borrower left behind: an open transaction or disabled auto-commit.
+     */
+    private boolean reset(PooledConnection pooled) {
+        try {
+            Connection connection = pooled.getConnection();
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        discardedCount.increment();
+        pooled.closePhysical();
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.add(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        for (PooledConnection pooled : borrowed) {
+            Throwable borrowedBy = pooled.borrowedBy;
+            if (!pooled.leakReported && borrowedBy != null && now - pooled.borrowedAt > leakThresholdNanos) {
+                pooled.leakReported = true;
+                leakCount.increment();
+                System.err.println("Possible connection leak: connection on loan for "
+                        + TimeUnit.NANOSECONDS.toMillis(now - pooled.borrowedAt) + " ms");
+                borrowedBy.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Point-in-time pool metrics, used to size the pool.
+     */
+    public static class Stats {
+        public final int maxSize;
+        public final int active;
+        public final int idle;
+        public final int waiting;
+        public final long borrowCount;
+        public final long timeoutCount;
+        public final long createdCount;
+        public final long discardedCount;
+        public final long leakCount;
+        public final long averageWaitNanos;
+        public final long maxWaitNanos;
+
+        Stats(int maxSize, int active, int idle, int waiting, long borrowCount, long timeoutCount,
+              long createdCount, long discardedCount, long leakCount, long averageWaitNanos, long maxWaitNanos) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.borrowCount = borrowCount;
+            this.timeoutCount = timeoutCount;
+            this.createdCount = createdCount;
+            this.discardedCount = discardedCount;
+            this.leakCount = leakCount;
+            this.averageWaitNanos = averageWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "active: " + active + " idle: " + idle + " max: " + maxSize + " waiting: " + waiting
+                    + " borrows: " + borrowCount + " timeouts: " + timeoutCount + " created: " + createdCount
+                    + " discarded: " + discardedCount + " leaks: " + leakCount
+                    + " avg wait: " + TimeUnit.NANOSECONDS.toMicros(averageWaitNanos) + " us"
+                    + " max wait: " + TimeUnit.NANOSECONDS.toMicros(maxWaitNanos) + " us";
+        }
+    }
+}
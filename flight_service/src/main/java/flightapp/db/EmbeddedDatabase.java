@@ -0,0 +1,144 @@
+package flightapp.db;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An in-process H2 database in SQL Server mode, standing in for the real database so the service
+ * runs, and can be measured, without a network or credentials.
+ *
+ * {@link #bootstrap} gives an empty database the Carriers, Months, Weekdays and Flights tables of
+ * the real one, the tables of createTables.sql, a {@link SyntheticFlights} dataset, and the
+ * indexes of createIndexesEmbedded.sql.
+ */
+public final class EmbeddedDatabase {
+
+    private static final String FLIGHT_TABLES = ""
+            + "CREATE TABLE Carriers(cid varchar(7) NOT NULL PRIMARY KEY, name varchar(83));"
+            + "CREATE TABLE Months(mid int NOT NULL PRIMARY KEY, [month] varchar(9));"
+            + "CREATE TABLE Weekdays(did int NOT NULL PRIMARY KEY, day_of_week varchar(9));"
+            + "CREATE TABLE Flights("
+            + "fid int NOT NULL PRIMARY KEY, month_id int REFERENCES Months(mid), day_of_month_id int, "
+            + "day_of_week_id int REFERENCES Weekdays(did), carrier_id varchar(7) REFERENCES Carriers(cid), "
+            + "flight_num varchar(10), origin_city varchar(34), origin_state varchar(47), dest_city varchar(34), "
+            + "dest_state varchar(46), departure_delay int, taxi_out int, arrival_delay int, canceled int, "
+            + "actual_time int, distance int, capacity int, price int);";
+
+    private static final String[] MONTHS = {"January", "February", "March", "April", "May", "June", "July",
+            "August", "September", "October", "November", "December"};
+    private static final String[] WEEKDAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday",
+            "Sunday"};
+
+    private EmbeddedDatabase() {
+    }
+
+    /**
+     * @param path file to keep the database in, or null to keep it in memory as long as the
+     *             process lives
+     *
+     * @return the JDBC URL of the database named {@code name}
+     */
+    public static String url(String name, String path) {
+        String location = path == null ? "mem:" + name : "file:" + path;
+        return "jdbc:h2:" + location + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * Opens connections to {@code url} configured like the connections to the real database.
+     */
+    public static ConnectionFactory connectionFactory(String url) {
+        return () -> {
+            Connection conn = DriverManager.getConnection(url);
+            conn.setAutoCommit(true);
+            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            return conn;
+        };
+    }
+
+    /**
+     * Creates the tables, inserts {@code flights} and then creates the indexes, unless the database
+     * already has a Flights table, as a file database does after its first run.
+     *
+     * @param createTables  path of createTables.sql
+     * @param createIndexes path of createIndexesEmbedded.sql, or null to leave the tables without
+     *                      secondary indexes
+     *
+     * @return true if the database was empty and has been filled
+     */
+    public static boolean bootstrap(Connection conn, Path createTables, Path createIndexes, SyntheticFlights flights)
+            throws SQLException, IOException {
+        try (Statement statement = conn.createStatement()) {
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_NAME) = 'FLIGHTS'")) {
+                rs.next();
+                if (rs.getInt(1) > 0) {
+                    return false;
+                }
+            }
+            statement.execute(FLIGHT_TABLES);
+            runScript(conn, createTables);
+        }
+        insertReferenceData(conn);
+        flights.insert(conn);
+        // indexes are built once over the loaded rows rather than maintained row by row
+        if (createIndexes != null) {
+            runScript(conn, createIndexes);
+        }
+        return true;
+    }
+
+    /**
+     * Runs the SQL statements of the file {@code script}.
+     */
+    public static void runScript(Connection conn, Path script) throws SQLException, IOException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(new String(Files.readAllBytes(script), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Creates an in-memory database named {@code name} holding {@code flights}, and opens a pool of
+     * connections to it.
+     *
+     * @param createIndexes path of createIndexesEmbedded.sql, or null for no secondary indexes
+     */
+    public static ConnectionPool open(String name, SyntheticFlights flights, Path createTables, Path createIndexes,
+                                      int poolSize) throws SQLException, IOException {
+        String url = url(name, null);
+        ConnectionFactory factory = connectionFactory(url);
+        try (Connection conn = factory.open()) {
+            bootstrap(conn, createTables, createIndexes, flights);
+        }
+        return new ConnectionPool(factory, poolSize, 64, 30000, 5000, 0);
+    }
+
+    private static void insertReferenceData(Connection conn) throws SQLException {
+        try (PreparedStatement carriers = conn.prepareStatement("INSERT INTO Carriers VALUES(?, ?)");
+             PreparedStatement months = conn.prepareStatement("INSERT INTO Months VALUES(?, ?)");
+             PreparedStatement weekdays = conn.prepareStatement("INSERT INTO Weekdays VALUES(?, ?)")) {
+            for (String carrier : SyntheticFlights.CARRIERS) {
+                carriers.setString(1, carrier);
+                carriers.setString(2, carrier + " Airlines");
+                carriers.executeUpdate();
+            }
+            for (int m = 0; m < MONTHS.length; m++) {
+                months.setInt(1, m + 1);
+                months.setString(2, MONTHS[m]);
+                months.executeUpdate();
+            }
+            for (int d = 0; d < WEEKDAYS.length; d++) {
+                weekdays.setInt(1, d + 1);
+                weekdays.setString(2, WEEKDAYS[d]);
+                weekdays.executeUpdate();
+            }
+        }
+    }
+}
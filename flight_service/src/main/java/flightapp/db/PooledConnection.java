@@ -0,0 +1,105 @@
+package flightapp.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A physical connection on loan from a {@link ConnectionPool}. Closing it hands the connection
+ * back to the pool; the physical connection stays open.
+ */
+public class PooledConnection implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final StatementCache statements;
+
+    long lastUsedAt;
+    long borrowedAt;
+    Throwable borrowedBy;
+    boolean leakReported;
+    long transactionEnds;
+    private long executions;
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statements = new StatementCache(connection, statementCacheSize);
+        this.lastUsedAt = System.nanoTime();
+    }
+
+    /**
+     * @return the underlying connection, valid until this loan is closed
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Return a prepared statement for {@code sql} from this connection's statement cache. The
+     * statement stays open for later loans of the same connection, so callers must not close it.
+     *
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return statements.prepare(sql);
+    }
+
+    /**
+     * Runs {@code statement}, a statement of this connection, counting it as a round trip.
+     *
+     * @throws SQLException
+     */
+    public ResultSet executeQuery(PreparedStatement statement) throws SQLException {
+        executions++;
+        return statement.executeQuery();
+    }
+
+    /**
+     * Like {@link #executeQuery}, for a statement that updates rows.
+     *
+     * @throws SQLException
+     */
+    public int executeUpdate(PreparedStatement statement) throws SQLException {
+        executions++;
+        return statement.executeUpdate();
+    }
+
+    /**
+     * Like {@link #executeQuery}, for the batch added to {@code statement}, which is sent in one
+     * round trip.
+     *
+     * @throws SQLException
+     */
+    public int[] executeBatch(PreparedStatement statement) throws SQLException {
+        executions++;
+        return statement.executeBatch();
+    }
+
+    /**
+     * @return the statements executed through this loan's execute methods and the transactions
+     *         committed or rolled back on this connection since it was opened. Only the borrower
+     *         may call this.
+     */
+    public long roundTrips() {
+        return executions + transactionEnds;
+    }
+
+    /**
+     * Returns the connection to the pool.
+     */
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    void closePhysical() {
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
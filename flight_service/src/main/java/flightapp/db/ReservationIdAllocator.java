@@ -0,0 +1,42 @@
+package flightapp.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out reservation IDs from the ReservationIds sequence in createTables.sql.
+ *
+ * IDs start at 1 and are unique across every process sharing the database. Drawing from a
+ * sequence neither scans the Reservation table nor takes locks that other bookings wait on. The
+ * sequence is not rolled back with the booking, so a booking draws its ID only once it has its
+ * seats, and keeps it when its transaction is retried; an ID is skipped only when such a booking
+ * then fails.
+ */
+public class ReservationIdAllocator {
+
+    private static final String NEXT_ID = "SELECT NEXT VALUE FOR ReservationIds";
+    private static final String RESTART = "ALTER SEQUENCE ReservationIds RESTART WITH 1";
+
+    /**
+     * @return the next reservation ID
+     *
+     * @throws SQLException
+     */
+    public int next(PooledConnection pooled) throws SQLException {
+        PreparedStatement nextId = pooled.prepareStatement(NEXT_ID);
+        try (ResultSet rs = pooled.executeQuery(nextId)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Starts the IDs over at 1. Only for clearing the tables.
+     *
+     * @throws SQLException
+     */
+    public void restart(PooledConnection pooled) throws SQLException {
+        pooled.executeUpdate(pooled.prepareStatement(RESTART));
+    }
+}
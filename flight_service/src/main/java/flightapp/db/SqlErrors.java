@@ -0,0 +1,47 @@
+package flightapp.db;
+
+import java.sql.SQLException;
+
+/**
+ * Tells the errors the application expects from the database apart from real failures.
+ */
+public final class SqlErrors {
+
+    // SQL Server error codes
+    private static final int PRIMARY_KEY_VIOLATION = 2627;
+    private static final int UNIQUE_INDEX_VIOLATION = 2601;
+    private static final int DEADLOCK = 1205;
+    private static final int SNAPSHOT_UPDATE_CONFLICT = 3960;
+    private static final String SERIALIZATION_FAILURE = "40001";
+    // SQLState of a duplicate key in H2 and other databases that report the specific state
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private SqlErrors() {
+    }
+
+    /**
+     * @return true if {@code ex} reports a row whose key is already taken. Other integrity
+     *         violations, such as a missing foreign key or a NULL in a NOT NULL column, share the
+     *         SQLState class 23 but are failures.
+     */
+    public static boolean isDuplicateKey(SQLException ex) {
+        return ex.getErrorCode() == PRIMARY_KEY_VIOLATION || ex.getErrorCode() == UNIQUE_INDEX_VIOLATION
+                || UNIQUE_VIOLATION.equals(ex.getSQLState());
+    }
+
+    /**
+     * @return true if {@code ex} reports that the transaction was chosen as a deadlock victim
+     */
+    public static boolean isDeadlock(SQLException ex) {
+        return ex.getErrorCode() == DEADLOCK;
+    }
+
+    /**
+     * @return true if {@code ex} aborted the transaction because it collided with another one, so
+     *         running it again may succeed
+     */
+    public static boolean isRetryable(SQLException ex) {
+        return isDeadlock(ex) || ex.getErrorCode() == SNAPSHOT_UPDATE_CONFLICT
+                || SERIALIZATION_FAILURE.equals(ex.getSQLState());
+    }
+}
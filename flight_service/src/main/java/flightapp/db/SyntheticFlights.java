@@ -0,0 +1,161 @@
+package flightapp.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A reproducible, randomly generated Flights table.
+ *
+ * Flights of one month are spread evenly over its days and connect random pairs of cities. The
+ * number of cities grows with the square root of the number of flights, which keeps a few direct
+ * and many one-stop routes between the cities of a typical search whatever the size.
+ */
+public final class SyntheticFlights {
+
+    public static final int MONTH = 7;
+    public static final int DAYS = 31;
+
+    private static final String[] STATES = {"WA", "OR", "CA", "NV", "AZ", "TX", "IL", "NY", "MA", "FL"};
+    static final String[] CARRIERS = {"AA", "AS", "B6", "DL", "F9", "NK", "UA", "WN"};
+
+    public final int size;
+    public final String[] cities;
+    public final int[] origin;
+    public final int[] dest;
+    public final int[] day;
+    public final int[] time;
+    public final int[] price;
+    public final int[] capacity;
+    public final int[] carrier;
+
+    private SyntheticFlights(int size, int cityCount) {
+        this.size = size;
+        this.cities = new String[cityCount];
+        this.origin = new int[size];
+        this.dest = new int[size];
+        this.day = new int[size];
+        this.time = new int[size];
+        this.price = new int[size];
+        this.capacity = new int[size];
+        this.carrier = new int[size];
+    }
+
+    /**
+     * @param size     number of flights
+     * @param capacity seats on every flight
+     * @param seed     the same seed always generates the same flights
+     */
+    public static SyntheticFlights generate(int size, int capacity, long seed) {
+        int cityCount = Math.max(10, (int) Math.sqrt(size));
+        SyntheticFlights flights = new SyntheticFlights(size, cityCount);
+        for (int c = 0; c < cityCount; c++) {
+            flights.cities[c] = String.format("City%04d %s", c, STATES[c % STATES.length]);
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            int from = random.nextInt(cityCount);
+            int to = random.nextInt(cityCount - 1);
+            flights.origin[i] = from;
+            flights.dest[i] = to >= from ? to + 1 : to;
+            flights.day[i] = 1 + i % DAYS;
+            flights.time[i] = 30 + random.nextInt(570);
+            flights.price[i] = 50 + random.nextInt(950);
+            flights.capacity[i] = capacity;
+            flights.carrier[i] = random.nextInt(CARRIERS.length);
+        }
+        return flights;
+    }
+
+    /**
+     * Inserts the flights into an empty Flights table, flight {@code i} getting fid {@code i + 1}.
+     */
+    public void insert(Connection conn) throws SQLException {
+        String insert = "INSERT INTO Flights(fid, month_id, day_of_month_id, day_of_week_id, carrier_id, flight_num, "
+                + "origin_city, origin_state, dest_city, dest_state, departure_delay, taxi_out, arrival_delay, "
+                + "canceled, actual_time, distance, capacity, price) "
+                + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0, 0, 0, ?, ?, ?, ?)";
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement ps = conn.prepareStatement(insert)) {
+            for (int i = 0; i < size; i++) {
+                ps.setInt(1, i + 1);
+                ps.setInt(2, MONTH);
+                ps.setInt(3, day[i]);
+                ps.setInt(4, 1 + (day[i] - 1) % 7);
+                ps.setString(5, CARRIERS[carrier[i]]);
+                ps.setString(6, Integer.toString(100 + i % 9000));
+                ps.setString(7, cities[origin[i]]);
+                ps.setString(8, state(origin[i]));
+                ps.setString(9, cities[dest[i]]);
+                ps.setString(10, state(dest[i]));
+                ps.setInt(11, time[i]);
+                ps.setInt(12, 8 * time[i]);
+                ps.setInt(13, capacity[i]);
+                ps.setInt(14, price[i]);
+                ps.addBatch();
+                if (i % 1000 == 999) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private String state(int city) {
+        return STATES[city % STATES.length];
+    }
+
+    /**
+     * @return {@code count} (origin, destination, day) searches that each have a direct flight
+     */
+    public List<int[]> directSearches(int count, long seed) {
+        Random random = new Random(seed);
+        List<int[]> searches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int f = random.nextInt(size);
+            searches.add(new int[] {origin[f], dest[f], day[f]});
+        }
+        return searches;
+    }
+
+    /**
+     * @return up to {@code count} (origin, destination, day) searches that each have a one-stop
+     *         route
+     */
+    public List<int[]> oneStopSearches(int count, long seed) {
+        // flights by day and origin, to find second legs
+        List<List<List<Integer>>> byDayAndOrigin = new ArrayList<>();
+        for (int d = 0; d <= DAYS; d++) {
+            List<List<Integer>> byOrigin = new ArrayList<>();
+            for (int c = 0; c < cities.length; c++) {
+                byOrigin.add(new ArrayList<>());
+            }
+            byDayAndOrigin.add(byOrigin);
+        }
+        for (int i = 0; i < size; i++) {
+            byDayAndOrigin.get(day[i]).get(origin[i]).add(i);
+        }
+
+        Random random = new Random(seed);
+        List<int[]> searches = new ArrayList<>(count);
+        for (int attempt = 0; searches.size() < count && attempt < 100 * count; attempt++) {
+            int first = random.nextInt(size);
+            List<Integer> seconds = byDayAndOrigin.get(day[first]).get(dest[first]);
+            if (seconds.isEmpty()) {
+                continue;
+            }
+            int second = seconds.get(random.nextInt(seconds.size()));
+            if (dest[second] != origin[first]) {
+                searches.add(new int[] {origin[first], dest[second], day[first]});
+            }
+        }
+        return searches;
+    }
+}
@@ -0,0 +1,199 @@
+package flightapp.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a unit of work in a transaction, retrying it when the database aborts the transaction
+ * because of a deadlock or a serialization failure.
+ *
+ * Every attempt either commits or is rolled back before the template returns or retries, so no
+ * transaction is ever left open on the connection. Each attempt runs on a connection of its own,
+ * given back before a retry waits, so a transaction that backs off holds neither locks nor a pooled
+ * connection. Retries wait with exponential backoff and full jitter, so transactions that collided
+ * do not collide again in lockstep. The unit of work may be run several times and must not have
+ * side effects outside the database.
+ */
+public class TransactionTemplate {
+
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxAttempts       attempts per unit of work, including the first
+     * @param baseBackoffMillis upper bound of the wait before the first retry
+     * @param maxBackoffMillis  cap on the wait before any retry
+     */
+    public TransactionTemplate(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * A unit of work run inside a transaction.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Transaction transaction) throws SQLException;
+    }
+
+    /**
+     * Lends the connection each attempt of a unit of work runs on.
+     */
+    public interface Lender {
+        PooledConnection borrow() throws SQLException;
+
+        void giveBack(PooledConnection pooled);
+    }
+
+    /**
+     * The transaction a unit of work runs in.
+     */
+    public static final class Transaction {
+        private boolean rollbackOnly = false;
+
+        /**
+         * Makes the template roll the transaction back instead of committing it. The value
+         * returned by the unit of work is still handed to the caller.
+         */
+        public void setRollbackOnly() {
+            rollbackOnly = true;
+        }
+    }
+
+    /**
+     * Runs {@code work} in a transaction on a connection of {@code lender}, retrying on deadlock or
+     * serialization failure up to the configured number of attempts.
+     *
+     * @param operation name the retry counters are kept under
+     *
+     * @return what the last attempt of {@code work} returned
+     *
+     * @throws SQLException if the work failed with a non-retryable error or ran out of attempts
+     */
+    public <T> T execute(String operation, Lender lender, Work<T> work) throws SQLException {
+        OperationStats counters = stats.computeIfAbsent(operation, o -> new OperationStats());
+
+        for (int attempt = 1; ; attempt++) {
+            PooledConnection pooled = lender.borrow();
+            try {
+                return attempt(counters, pooled, work);
+            } catch (SQLException e) {
+                if (!SqlErrors.isRetryable(e) || attempt >= maxAttempts) {
+                    counters.failures.increment();
+                    throw e;
+                }
+                counters.retries.increment();
+            } finally {
+                lender.giveBack(pooled);
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Runs {@code work} once in a transaction on {@code pooled}, and commits or rolls it back.
+     */
+    private <T> T attempt(OperationStats counters, PooledConnection pooled, Work<T> work) throws SQLException {
+        counters.attempts.increment();
+        Connection conn = pooled.getConnection();
+        Transaction transaction = new Transaction();
+        conn.setAutoCommit(false);
+        try {
+            T result = work.run(transaction);
+            if (transaction.rollbackOnly) {
+                conn.rollback();
+                counters.rollbacks.increment();
+            } else {
+                conn.commit();
+                counters.commits.increment();
+            }
+            pooled.transactionEnds++;
+            return result;
+        } catch (SQLException e) {
+            rollbackQuietly(pooled);
+            counters.rollbacks.increment();
+            if (SqlErrors.isDeadlock(e)) {
+                counters.deadlocks.increment();
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            rollbackQuietly(pooled);
+            counters.rollbacks.increment();
+            counters.failures.increment();
+            throw e;
+        } finally {
+            restoreAutoCommit(pooled);
+        }
+    }
+
+    /**
+     * @return the counters of every operation run so far, keyed by operation name
+     */
+    public Map<String, OperationStats> stats() {
+        return new TreeMap<>(stats);
+    }
+
+    private void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        long sleep = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            TimeUnit.MILLISECONDS.sleep(sleep);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry a transaction", e);
+        }
+    }
+
+    /**
+     * Turns auto-commit back on without hiding why the attempt ended: a connection that cannot
+     * take it fails the same way when the pool resets it, and is discarded there.
+     */
+    private static void restoreAutoCommit(PooledConnection pooled) {
+        try {
+            pooled.getConnection().setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void rollbackQuietly(PooledConnection pooled) {
+        pooled.transactionEnds++;
+        try {
+            pooled.getConnection().rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counters of one operation.
+     */
+    public static final class OperationStats {
+        public final LongAdder attempts = new LongAdder();
+        public final LongAdder commits = new LongAdder();
+        public final LongAdder rollbacks = new LongAdder();
+        public final LongAdder retries = new LongAdder();
+        public final LongAdder deadlocks = new LongAdder();
+        public final LongAdder failures = new LongAdder();
+
+        @Override
+        public String toString() {
+            return "attempts: " + attempts.sum() + " commits: " + commits.sum() + " rollbacks: " + rollbacks.sum()
+                    + " retries: " + retries.sum() + " deadlocks: " + deadlocks.sum() + " failures: " + failures.sum();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package flightapp.dto;
 
+import java.util.Arrays;
+
 /**
  * a dto class to store data
  */
@@ -7,19 +9,26 @@ public class Itinerary {
     public int iid;
     public int fid1;
     public int fid2;
+    // every flight in order; fid1 and fid2 are the first two, fid2 being -1 for a direct flight
+    public int[] fids;
     public int price;
     public int day;
 
     public Itinerary(int iid, int fid1, int fid2, int price, int day){
+        this(iid, fid2 == -1 ? new int[]{fid1} : new int[]{fid1, fid2}, price, day);
+    }
+
+    public Itinerary(int iid, int[] fids, int price, int day){
         this.iid = iid;
-        this.fid1 = fid1;
-        this.fid2 = fid2;
+        this.fid1 = fids[0];
+        this.fid2 = fids.length > 1 ? fids[1] : -1;
+        this.fids = fids;
         this.price = price;
         this.day = day;
     }
     @Override
     public String toString(){
-        return "iid: " + iid + " fid1: " + fid1 + " fid2: " + fid2 + " price: " + price + " day: " +day;
+        return "iid: " + iid + " fids: " + Arrays.toString(fids) + " price: " + price + " day: " +day;
     }
 
 }
@@ -0,0 +1,42 @@
+package flightapp.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What is measured about one command: how long it took, how many statements and transaction ends
+ * it sent to the database, how long its response was and how often it threw.
+ */
+public class CommandMetrics {
+
+    final String command;
+    final Histogram latencyNanos = new Histogram();
+    final Histogram resultChars = new Histogram();
+    final LongAdder roundTrips = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    CommandMetrics(String command) {
+        this.command = command;
+    }
+
+    /**
+     * Records a command that returned {@code result}.
+     */
+    public void record(long nanos, long roundTrips, String result) {
+        latencyNanos.record(nanos);
+        resultChars.record(result.length());
+        if (roundTrips > 0) {
+            this.roundTrips.add(roundTrips);
+        }
+    }
+
+    /**
+     * Records a command that threw instead of returning.
+     */
+    public void recordError(long nanos, long roundTrips) {
+        latencyNanos.record(nanos);
+        errors.increment();
+        if (roundTrips > 0) {
+            this.roundTrips.add(roundTrips);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package flightapp.metrics;
+
+import flightapp.db.ConnectionPool;
+import flightapp.db.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToLongFunction;
+
+/**
+ * The metrics of the process: one {@link CommandMetrics} per command, plus the counters of the
+ * transaction templates and connection pools handed to {@link #watch}.
+ *
+ * {@link #scrape()} renders everything in the Prometheus text format. Latencies are exported in
+ * seconds and as quantiles over the life of the process.
+ */
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+
+    private static final Map<String, CommandMetrics> commands = new ConcurrentSkipListMap<>();
+    private static final List<TransactionTemplate> transactionTemplates = new CopyOnWriteArrayList<>();
+    private static final Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @return the metrics of {@code command}, created on first use. Callers on a hot path should
+     *         keep the returned object rather than look it up every time.
+     */
+    public static CommandMetrics command(String command) {
+        return commands.computeIfAbsent(command, CommandMetrics::new);
+    }
+
+    static List<CommandMetrics> commands() {
+        return new ArrayList<>(commands.values());
+    }
+
+    /**
+     * Exports the rollbacks, retries and deadlocks counted by {@code transactions}.
+     */
+    public static void watch(TransactionTemplate transactions) {
+        transactionTemplates.add(transactions);
+    }
+
+    /**
+     * Exports the usage of {@code pool} under the label {@code name}.
+     */
+    public static void watch(String name, ConnectionPool pool) {
+        pools.put(name, pool);
+    }
+
+    static Map<String, TransactionTemplate.OperationStats> transactionStats() {
+        Map<String, TransactionTemplate.OperationStats> all = new TreeMap<>();
+        for (TransactionTemplate template : transactionTemplates) {
+            all.putAll(template.stats());
+        }
+        return all;
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(8192);
+        List<CommandMetrics> all = commands();
+        List<Histogram.Snapshot> latencies = new ArrayList<>();
+        List<Histogram.Snapshot> sizes = new ArrayList<>();
+        for (CommandMetrics command : all) {
+            latencies.add(command.latencyNanos.snapshot());
+            sizes.add(command.resultChars.snapshot());
+        }
+
+        header(sb, "flightapp_command_latency_seconds", "summary", "Time spent executing a command");
+        for (int i = 0; i < all.size(); i++) {
+            summary(sb, "flightapp_command_latency_seconds", "command", all.get(i).command, latencies.get(i), 1e-9);
+        }
+        header(sb, "flightapp_command_result_chars", "summary", "Length of the response to a command");
+        for (int i = 0; i < all.size(); i++) {
+            summary(sb, "flightapp_command_result_chars", "command", all.get(i).command, sizes.get(i), 1);
+        }
+        header(sb, "flightapp_command_round_trips_total", "counter",
+                "Statements executed and transactions ended on behalf of a command");
+        for (CommandMetrics command : all) {
+            sample(sb, "flightapp_command_round_trips_total", "command", command.command, command.roundTrips.sum());
+        }
+        header(sb, "flightapp_command_errors_total", "counter", "Commands that threw instead of responding");
+        for (CommandMetrics command : all) {
+            sample(sb, "flightapp_command_errors_total", "command", command.command, command.errors.sum());
+        }
+
+        Map<String, TransactionTemplate.OperationStats> transactions = transactionStats();
+        transactionCounter(sb, transactions, "attempts", "Transaction attempts, retries included",
+                s -> s.attempts.sum());
+        transactionCounter(sb, transactions, "commits", "Transactions committed",
+                s -> s.commits.sum());
+        transactionCounter(sb, transactions, "rollbacks", "Transactions rolled back",
+                s -> s.rollbacks.sum());
+        transactionCounter(sb, transactions, "retries", "Transactions retried after a deadlock or conflict",
+                s -> s.retries.sum());
+        transactionCounter(sb, transactions, "deadlocks", "Transactions chosen as a deadlock victim",
+                s -> s.deadlocks.sum());
+        transactionCounter(sb, transactions, "failures", "Transactions that failed for good",
+                s -> s.failures.sum());
+
+        if (!pools.isEmpty()) {
+            Map<String, ConnectionPool.Stats> stats = new TreeMap<>();
+            pools.forEach((name, pool) -> stats.put(name, pool.stats()));
+            header(sb, "flightapp_pool_active", "gauge", "Connections on loan");
+            stats.forEach((name, s) -> sample(sb, "flightapp_pool_active", "pool", name, s.active));
+            header(sb, "flightapp_pool_idle", "gauge", "Connections waiting to be borrowed");
+            stats.forEach((name, s) -> sample(sb, "flightapp_pool_idle", "pool", name, s.idle));
+            header(sb, "flightapp_pool_waiting", "gauge", "Threads waiting for a connection");
+            stats.forEach((name, s) -> sample(sb, "flightapp_pool_waiting", "pool", name, s.waiting));
+            header(sb, "flightapp_pool_borrows_total", "counter", "Connections borrowed");
+            stats.forEach((name, s) -> sample(sb, "flightapp_pool_borrows_total", "pool", name, s.borrowCount));
+            header(sb, "flightapp_pool_timeouts_total", "counter", "Borrows that timed out");
+            stats.forEach((name, s) -> sample(sb, "flightapp_pool_timeouts_total", "pool", name, s.timeoutCount));
+        }
+        return sb.toString();
+    }
+
+    private static void transactionCounter(StringBuilder sb, Map<String, TransactionTemplate.OperationStats> stats,
+                                           String counter, String help,
+                                           ToLongFunction<TransactionTemplate.OperationStats> value) {
+        String name = "flightapp_transaction_" + counter + "_total";
+        header(sb, name, "counter", help);
+        for (Map.Entry<String, TransactionTemplate.OperationStats> entry : stats.entrySet()) {
+            sample(sb, name, "operation", entry.getKey(), value.applyAsLong(entry.getValue()));
+        }
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String label, String value,
+                                Histogram.Snapshot snapshot, double scale) {
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(label).append("=\"").append(value)
+                    .append("\",quantile=\"").append(quantile).append("\"} ")
+                    .append(format(snapshot.valueAt(quantile) * scale)).append('\n');
+        }
+        sb.append(name).append("_sum{").append(label).append("=\"").append(value).append("\"} ")
+                .append(format(snapshot.sum() * scale)).append('\n');
+        sb.append(name).append("_count{").append(label).append("=\"").append(value).append("\"} ")
+                .append(snapshot.count()).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String value, long sample) {
+        sb.append(name).append('{').append(label).append("=\"").append(value).append("\"} ").append(sample)
+                .append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.9f", value);
+    }
+}
@@ -0,0 +1,132 @@
+package flightapp.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes {@link Metrics}: over HTTP for a scraper to collect, and as a periodic summary in
+ * the log.
+ */
+public final class MetricsExporter {
+
+    private MetricsExporter() {
+    }
+
+    /**
+     * Serves {@link Metrics#scrape()} at {@code /metrics} on {@code port}, from a single daemon
+     * thread.
+     *
+     * @return the server, already started
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public static HttpServer serveHttp(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return server;
+    }
+
+    /**
+     * Prints, every {@code intervalSeconds}, a line per command with the latencies, round trips
+     * and errors of the commands run during the interval, followed by the transactions that
+     * rolled back or deadlocked during it.
+     *
+     * @return the scheduler, shut it down to stop logging
+     */
+    public static ScheduledExecutorService logEvery(long intervalSeconds, PrintStream log) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        IntervalLog intervalLog = new IntervalLog(log);
+        // an exception would cancel the schedule, so report it and keep logging
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                intervalLog.dump();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return scheduler;
+    }
+
+    /**
+     * Remembers what was logged last, so each dump shows only its own interval.
+     */
+    private static class IntervalLog {
+        private final PrintStream log;
+        private final Map<String, Histogram.Snapshot> latencies = new HashMap<>();
+        private final Map<String, long[]> counters = new HashMap<>();
+
+        IntervalLog(PrintStream log) {
+            this.log = log;
+        }
+
+        void dump() {
+            StringBuilder sb = new StringBuilder();
+            for (CommandMetrics command : Metrics.commands()) {
+                Histogram.Snapshot latency = command.latencyNanos.snapshot();
+                long[] now = {command.roundTrips.sum(), command.errors.sum()};
+                Histogram.Snapshot previous = latencies.put(command.command, latency);
+                long[] before = counters.put(command.command, now);
+                Histogram.Snapshot interval = previous == null ? latency : latency.minus(previous);
+                if (interval.count() == 0) {
+                    continue;
+                }
+                long roundTrips = now[0] - (before == null ? 0 : before[0]);
+                long errors = now[1] - (before == null ? 0 : before[1]);
+                sb.append(String.format(Locale.ROOT,
+                        "metrics %-12s n: %d p50: %.3f ms p99: %.3f ms p999: %.3f ms max: %.3f ms"
+                                + " round trips/command: %.2f errors: %d%n",
+                        command.command, interval.count(), millis(interval.valueAt(0.5)),
+                        millis(interval.valueAt(0.99)), millis(interval.valueAt(0.999)), millis(interval.max()),
+                        (double) roundTrips / interval.count(), errors));
+            }
+            Metrics.transactionStats().forEach((operation, stats) -> {
+                String key = "tx " + operation;
+                long[] now = {stats.rollbacks.sum(), stats.deadlocks.sum(), stats.retries.sum()};
+                long[] before = counters.put(key, now);
+                if (before == null) {
+                    before = new long[now.length];
+                }
+                if (now[0] != before[0] || now[1] != before[1]) {
+                    sb.append(String.format(Locale.ROOT, "metrics tx %-9s rollbacks: %d deadlocks: %d retries: %d%n",
+                            operation, now[0] - before[0], now[1] - before[1], now[2] - before[2]));
+                }
+            });
+            if (sb.length() > 0) {
+                log.print(sb);
+                log.flush();
+            }
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package flightapp.search;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * The cities of the Flights table, numbered 0 .. size() - 1 in alphabetical order.
+ *
+ * Searches name their cities exactly, ignoring case, and are resolved to ids here once, so the
+ * flight index and the SQL queries match a city by key instead of by pattern. Incomplete or
+ * misspelt names are resolved separately, by the autocomplete lookups {@link #withPrefix} and
+ * {@link #similarTo}, which walk a trie of the lower-cased names.
+ */
+public class CityDictionary {
+
+    private static final String LOAD_CITIES = "SELECT origin_city FROM Flights UNION SELECT dest_city FROM Flights";
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final Node root = new Node();
+
+    private CityDictionary(SortedSet<String> sortedNames) {
+        this.names = sortedNames.toArray(new String[0]);
+        this.ids = new HashMap<>(names.length * 2);
+        for (int id = 0; id < names.length; id++) {
+            String key = names[id].toLowerCase(Locale.ROOT);
+            ids.put(key, id);
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+            }
+            node.city = id;
+        }
+    }
+
+    /**
+     * Reads the name of every city that flights leave from or arrive at.
+     *
+     * @throws SQLException
+     */
+    public static CityDictionary load(Connection conn) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(LOAD_CITIES);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return of(names);
+    }
+
+    /**
+     * @return the dictionary of {@code names}; nulls are skipped, and names differing only in case
+     *         are one city
+     */
+    public static CityDictionary of(Collection<String> names) {
+        SortedSet<String> sorted = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : names) {
+            if (name != null) {
+                sorted.add(name);
+            }
+        }
+        return new CityDictionary(sorted);
+    }
+
+    /**
+     * @return the id of the city named {@code name}, ignoring case, or -1 if there is none
+     */
+    public int id(String name) {
+        Integer id = ids.get(name.toLowerCase(Locale.ROOT));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the name of city {@code id} as the Flights table spells it
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return up to {@code limit} names starting with {@code prefix}, ignoring case, in
+     *         alphabetical order
+     */
+    public List<String> withPrefix(String prefix, int limit) {
+        List<String> matches = new ArrayList<>();
+        String key = prefix.toLowerCase(Locale.ROOT);
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.children.get(key.charAt(i));
+        }
+        if (node != null) {
+            collect(node, limit, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Names that start with something at most {@code maxEdits} insertions, deletions or
+     * substitutions away from {@code text}, ignoring case. Finds "Seattle WA" for "seatle" or
+     * "saettle".
+     *
+     * The trie is walked depth first carrying one row of the edit distance table per node. A branch
+     * is left as soon as every entry of its row exceeds {@code maxEdits}, its cities taking the
+     * distance of the closest prefix above it.
+     *
+     * @return up to {@code limit} names, closest first, then in alphabetical order
+     */
+    public List<String> similarTo(String text, int maxEdits, int limit) {
+        String key = text.toLowerCase(Locale.ROOT);
+        int[] row = new int[key.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        // distances[id] is the smallest distance of a prefix of city id, or maxEdits + 1
+        int[] distances = new int[names.length];
+        Arrays.fill(distances, maxEdits + 1);
+        similarTo(root, key, row, maxEdits + 1, maxEdits, distances);
+
+        List<Integer> found = new ArrayList<>();
+        for (int id = 0; id < names.length; id++) {
+            if (distances[id] <= maxEdits) {
+                found.add(id);
+            }
+        }
+        found.sort(Comparator.comparingInt((Integer id) -> distances[id]).thenComparingInt(id -> id));
+        List<String> matches = new ArrayList<>();
+        for (int i = 0; i < found.size() && i < limit; i++) {
+            matches.add(names[found.get(i)]);
+        }
+        return matches;
+    }
+
+    /**
+     * @param row  distances between the prefixes of {@code key} and the path to {@code node}
+     * @param best smallest distance between {@code key} and a prefix of the path above
+     */
+    private void similarTo(Node node, String key, int[] row, int best, int maxEdits, int[] distances) {
+        best = Math.min(best, row[key.length()]);
+        if (node.city >= 0) {
+            distances[node.city] = best;
+        }
+        for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+            char c = child.getKey();
+            int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            int smallest = next[0];
+            for (int i = 1; i < row.length; i++) {
+                int substitute = row[i - 1] + (key.charAt(i - 1) == c ? 0 : 1);
+                next[i] = Math.min(substitute, Math.min(row[i] + 1, next[i - 1] + 1));
+                smallest = Math.min(smallest, next[i]);
+            }
+            if (smallest <= maxEdits) {
+                similarTo(child.getValue(), key, next, best, maxEdits, distances);
+            } else if (best <= maxEdits) {
+                markSubtree(child.getValue(), best, distances);
+            }
+        }
+    }
+
+    private static void markSubtree(Node node, int distance, int[] distances) {
+        if (node.city >= 0) {
+            distances[node.city] = distance;
+        }
+        for (Node child : node.children.values()) {
+            markSubtree(child, distance, distances);
+        }
+    }
+
+    private void collect(Node node, int limit, List<String> matches) {
+        if (matches.size() >= limit) {
+            return;
+        }
+        if (node.city >= 0) {
+            matches.add(names[node.city]);
+        }
+        for (Node child : node.children.values()) {
+            collect(child, limit, matches);
+        }
+    }
+
+    /**
+     * A trie node, the end of the lower-cased name of {@code city} unless that is -1.
+     */
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        int city = -1;
+    }
+}
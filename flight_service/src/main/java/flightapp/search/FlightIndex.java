@@ -0,0 +1,534 @@
+package flightapp.search;
+
+import flightapp.dto.Flight;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory index over the non-canceled rows of the Flights table.
+ *
+ * The index is loaded once and shared by every session. Flights are grouped into one partition
+ * per (month, day of month). Inside a partition the columns needed for searching are held in
+ * primitive arrays sorted by (origin, dest, actual_time, fid), so the outgoing flights of a city
+ * form one contiguous run and the flights between two cities form a time-ordered sub-run of it.
+ * Cities are the ids of a {@link CityDictionary}.
+ */
+public class FlightIndex {
+
+    private static final String LOAD_FLIGHTS =
+            "SELECT fid, month_id, day_of_month_id, carrier_id, flight_num, origin_city, dest_city, actual_time, price "
+                    + "FROM Flights WHERE canceled = 0 ORDER BY fid ASC";
+
+    private static final String LOAD_FLIGHTS_OF_DAYS =
+            "SELECT fid, month_id, day_of_month_id, carrier_id, flight_num, origin_city, dest_city, actual_time, price "
+                    + "FROM Flights WHERE canceled = 0 AND day_of_month_id BETWEEN ? AND ? ORDER BY fid ASC";
+
+    private static final int MAX_DAY = 31;
+
+    // bit layout of the sort key used while building a partition
+    private static final int CITY_BITS = 13;
+    private static final int TIME_BITS = 14;
+    private static final int ROW_BITS = 24;
+
+    private final CityDictionary cities;
+    private final Partition[][] partitionsByDay;
+
+    private FlightIndex(CityDictionary cities, Partition[][] partitionsByDay) {
+        this.cities = cities;
+        this.partitionsByDay = partitionsByDay;
+    }
+
+    /**
+     * Reads every non-canceled flight and builds the index. Flights between cities missing from
+     * {@code cities} are left out.
+     *
+     * @throws SQLException
+     */
+    public static FlightIndex load(Connection conn, CityDictionary cities) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(LOAD_FLIGHTS)) {
+            return load(ps, cities);
+        }
+    }
+
+    /**
+     * Like {@link #load(Connection, CityDictionary)}, but only the flights of the days of the month
+     * {@code firstDay} .. {@code lastDay}, for a search that needs the flights of those days in
+     * memory when there is no shared index.
+     *
+     * @throws SQLException
+     */
+    public static FlightIndex loadDays(Connection conn, CityDictionary cities, int firstDay, int lastDay)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(LOAD_FLIGHTS_OF_DAYS)) {
+            ps.setInt(1, firstDay);
+            ps.setInt(2, lastDay);
+            return load(ps, cities);
+        }
+    }
+
+    private static FlightIndex load(PreparedStatement ps, CityDictionary cities) throws SQLException {
+        Builder builder = new Builder(cities);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                builder.add(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getString(5),
+                        rs.getString(6), rs.getString(7), rs.getInt(8), rs.getInt(9));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Direct flights from city {@code origin} to city {@code dest}, ordered by (actual_time, fid).
+     *
+     * @return at most {@code limit} single-leg routes
+     */
+    public List<Flight[]> directFlights(int origin, int dest, int dayOfMonth, int limit) {
+        List<Flight[]> routes = new ArrayList<>();
+        if (limit <= 0 || !isCity(origin) || !isCity(dest) || dayOfMonth < 1 || dayOfMonth > MAX_DAY) {
+            return routes;
+        }
+
+        List<long[]> candidates = new ArrayList<>();   // {actual_time, fid, partition, row}
+        Partition[] partitions = partitionsByDay[dayOfMonth];
+        for (int p = 0; p < partitions.length; p++) {
+            Partition partition = partitions[p];
+            int start = partition.routeStart(origin, dest);
+            int end = Math.min(partition.routeEnd(origin, dest), start + limit);
+            for (int row = start; row < end; row++) {
+                candidates.add(new long[]{partition.time[row], partition.fid[row], p, row});
+            }
+        }
+        candidates.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        for (int i = 0; i < candidates.size() && i < limit; i++) {
+            long[] c = candidates.get(i);
+            routes.add(new Flight[]{partitions[(int) c[2]].flight((int) c[3])});
+        }
+        return routes;
+    }
+
+    /**
+     * Two-leg routes {@code origin -> hub -> dest} on the same month and day, ordered by
+     * (total actual_time, fid1, fid2).
+     *
+     * For every hub the first legs and the second legs are both time-ordered runs of the
+     * partition, so the pairs through one hub form a grid whose keys grow along rows and columns.
+     * The k best pairs are pulled from those grids with a k-way merge whose heap never holds more
+     * than one cursor per hub plus one per emitted pair.
+     *
+     * @return at most {@code limit} two-leg routes
+     */
+    public List<Flight[]> oneStopFlights(int origin, int dest, int dayOfMonth, int limit) {
+        List<Flight[]> routes = new ArrayList<>();
+        if (limit <= 0 || !isCity(origin) || !isCity(dest) || dayOfMonth < 1 || dayOfMonth > MAX_DAY) {
+            return routes;
+        }
+
+        PriorityQueue<PairCursor> heap = new PriorityQueue<>();
+        for (Partition partition : partitionsByDay[dayOfMonth]) {
+            int end = partition.originEnd(origin);
+            int first = partition.originStart(origin);
+            while (first < end) {
+                int hub = partition.dest[first];
+                int firstEnd = partition.routeEnd(origin, hub);
+                int secondStart = partition.routeStart(hub, dest);
+                int secondEnd = partition.routeEnd(hub, dest);
+                if (secondStart < secondEnd) {
+                    heap.add(new PairCursor(partition, first, firstEnd, secondStart, secondStart, secondEnd));
+                }
+                first = firstEnd;
+            }
+        }
+
+        while (routes.size() < limit && !heap.isEmpty()) {
+            PairCursor cursor = heap.poll();
+            Partition partition = cursor.partition;
+            routes.add(new Flight[]{partition.flight(cursor.first), partition.flight(cursor.second)});
+
+            // move right along the row, and open the next row when leaving its first column
+            if (cursor.second + 1 < cursor.secondEnd) {
+                heap.add(cursor.next(cursor.first, cursor.second + 1));
+            }
+            if (cursor.second == cursor.secondStart && cursor.first + 1 < cursor.firstEnd) {
+                heap.add(cursor.next(cursor.first + 1, cursor.secondStart));
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * @return the number of flights held by the index
+     */
+    public int size() {
+        int size = 0;
+        for (Partition[] partitions : partitionsByDay) {
+            for (Partition partition : partitions) {
+                size += partition.fid.length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Routes of up to {@code maxLegs} flights from city {@code origin} to city {@code dest}, all on
+     * the same month and day, visiting no city twice, ranked by {@code ranking} and then by fids.
+     *
+     * @return at most {@code limit} routes
+     *
+     * @see RouteSearch
+     */
+    public List<Flight[]> routes(int origin, int dest, int dayOfMonth, int maxLegs, Ranking ranking, int limit) {
+        if (limit <= 0 || maxLegs <= 0 || !isCity(origin) || !isCity(dest) || origin == dest
+                || dayOfMonth < 1 || dayOfMonth > MAX_DAY) {
+            return new ArrayList<>();
+        }
+        return new RouteSearch(partitionsByDay[dayOfMonth], cities.size(), origin, dest, maxLegs, ranking, limit).run();
+    }
+
+    /**
+     * Like {@link #routes(int, int, int, int, Ranking, int)}, but on any day of the month from
+     * {@code firstDay} to {@code lastDay}, every route still on a single day.
+     *
+     * The days are searched in parallel on the common fork-join pool, so a range of days takes
+     * about as long as its slowest day when there are enough cores. The top {@code limit} routes
+     * of every day are then merged into one ranking, which holds the top {@code limit} routes of
+     * the range. A PARETO search keeps the whole front of every day instead, since a route beaten
+     * on a day may be ahead of routes of other days.
+     *
+     * @return at most {@code limit} routes
+     */
+    public List<Flight[]> routes(int origin, int dest, int firstDay, int lastDay, int maxLegs, Ranking ranking,
+                                 int limit) {
+        if (firstDay == lastDay) {
+            return routes(origin, dest, firstDay, maxLegs, ranking, limit);
+        }
+        int dayLimit = ranking == Ranking.PARETO ? Integer.MAX_VALUE : limit;
+        List<Flight[]> merged = IntStream.rangeClosed(Math.max(firstDay, 1), Math.min(lastDay, MAX_DAY))
+                .parallel()
+                .mapToObj(day -> routes(origin, dest, day, maxLegs, ranking, dayLimit))
+                .flatMap(List::stream)
+                .sorted(ranking.order())
+                .collect(Collectors.toList());
+
+        List<Flight[]> routes = new ArrayList<>();
+        int bestPrice = Integer.MAX_VALUE;
+        for (Flight[] route : merged) {
+            if (routes.size() >= limit) {
+                break;
+            }
+            int price = Ranking.price(route);
+            if (ranking != Ranking.PARETO || price < bestPrice) {
+                routes.add(route);
+                bestPrice = Math.min(bestPrice, price);
+            }
+        }
+        return routes;
+    }
+
+    private boolean isCity(int city) {
+        return city >= 0 && city < cities.size();
+    }
+
+    /**
+     * A position (first leg, second leg) in the grid of pairs through one hub.
+     */
+    private static final class PairCursor implements Comparable<PairCursor> {
+        final Partition partition;
+        final int first;
+        final int firstEnd;
+        final int second;
+        final int secondStart;
+        final int secondEnd;
+        final int totalTime;
+
+        PairCursor(Partition partition, int first, int firstEnd, int second, int secondStart, int secondEnd) {
+            this.partition = partition;
+            this.first = first;
+            this.firstEnd = firstEnd;
+            this.second = second;
+            this.secondStart = secondStart;
+            this.secondEnd = secondEnd;
+            this.totalTime = partition.time[first] + partition.time[second];
+        }
+
+        PairCursor next(int first, int second) {
+            return new PairCursor(partition, first, firstEnd, second, secondStart, secondEnd);
+        }
+
+        @Override
+        public int compareTo(PairCursor other) {
+            if (totalTime != other.totalTime) {
+                return Integer.compare(totalTime, other.totalTime);
+            }
+            int fid1 = partition.fid[first];
+            int otherFid1 = other.partition.fid[other.first];
+            if (fid1 != otherFid1) {
+                return Integer.compare(fid1, otherFid1);
+            }
+            return Integer.compare(partition.fid[second], other.partition.fid[other.second]);
+        }
+    }
+
+    /**
+     * The flights of one (month, day) held column-wise and sorted by (origin, dest, actual_time, fid).
+     */
+    final class Partition {
+        final int month;
+        final int day;
+        final int[] fid;
+        final int[] origin;
+        final int[] dest;
+        final int[] time;
+        final int[] price;
+        final String[] carrier;
+        final String[] flightNum;
+
+        // originOffsets[c] .. originOffsets[c + 1] is the run of flights leaving city c
+        final int[] originOffsets;
+
+        // route r, the run of flights between two cities, is rows routeStarts[r] .. routeStarts[r + 1];
+        // originRoutes[c] .. originRoutes[c + 1] are the routes leaving city c
+        int[] routeStarts;
+        int[] originRoutes;
+        // the same rows with every route ordered by price: byPrice[routeStarts[r]] is its cheapest row
+        int[] byPrice;
+
+        Partition(int month, int day, int size) {
+            this.month = month;
+            this.day = day;
+            this.fid = new int[size];
+            this.origin = new int[size];
+            this.dest = new int[size];
+            this.time = new int[size];
+            this.price = new int[size];
+            this.carrier = new String[size];
+            this.flightNum = new String[size];
+            this.originOffsets = new int[cities.size() + 1];
+        }
+
+        int originStart(int city) {
+            return originOffsets[city];
+        }
+
+        int originEnd(int city) {
+            return originOffsets[city + 1];
+        }
+
+        /**
+         * First row of the flights from {@code from} to {@code to}.
+         */
+        int routeStart(int from, int to) {
+            return lowerBound(from, to);
+        }
+
+        /**
+         * One past the last row of the flights from {@code from} to {@code to}.
+         */
+        int routeEnd(int from, int to) {
+            return lowerBound(from, to + 1);
+        }
+
+        /**
+         * First row in the run of {@code from} whose destination is not below {@code to}.
+         */
+        private int lowerBound(int from, int to) {
+            int lo = originStart(from);
+            int hi = originEnd(from);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (dest[mid] < to) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Fills in {@link #routeStarts}, {@link #originRoutes} and {@link #byPrice} once the rows are
+         * sorted.
+         */
+        void indexRoutes() {
+            int count = 0;
+            for (int row = 0; row < fid.length; row++) {
+                if (row == 0 || origin[row] != origin[row - 1] || dest[row] != dest[row - 1]) {
+                    count++;
+                }
+            }
+            routeStarts = new int[count + 1];
+            originRoutes = new int[cities.size() + 1];
+            int route = 0;
+            for (int row = 0; row < fid.length; row++) {
+                if (row == 0 || origin[row] != origin[row - 1] || dest[row] != dest[row - 1]) {
+                    routeStarts[route++] = row;
+                    originRoutes[origin[row] + 1]++;
+                }
+            }
+            routeStarts[count] = fid.length;
+            for (int c = 0; c < cities.size(); c++) {
+                originRoutes[c + 1] += originRoutes[c];
+            }
+
+            long[] keys = new long[fid.length];
+            for (int row = 0; row < fid.length; row++) {
+                keys[row] = ((long) price[row] << 32) | row;
+            }
+            for (int r = 0; r < count; r++) {
+                Arrays.sort(keys, routeStarts[r], routeStarts[r + 1]);
+            }
+            byPrice = new int[fid.length];
+            for (int i = 0; i < fid.length; i++) {
+                byPrice[i] = (int) keys[i];
+            }
+        }
+
+        Flight flight(int row) {
+            Flight flight = new Flight();
+            flight.fid = fid[row];
+            flight.dayOfMonth = day;
+            flight.carrierId = carrier[row];
+            flight.flightNum = flightNum[row];
+            flight.originCity = cities.name(origin[row]);
+            flight.destCity = cities.name(dest[row]);
+            flight.time = time[row];
+            flight.price = price[row];
+            return flight;
+        }
+    }
+
+    /**
+     * Accumulates rows in load order and sorts them into partitions.
+     */
+    private static final class Builder {
+        private final CityDictionary cities;
+        private final Map<String, String> strings = new HashMap<>();
+
+        private int size;
+        private int[] fid = new int[1024];
+        private int[] month = new int[1024];
+        private int[] day = new int[1024];
+        private int[] origin = new int[1024];
+        private int[] dest = new int[1024];
+        private int[] time = new int[1024];
+        private int[] price = new int[1024];
+        private String[] carrier = new String[1024];
+        private String[] flightNum = new String[1024];
+
+        Builder(CityDictionary cities) {
+            this.cities = cities;
+        }
+
+        void add(int fid, int month, int day, String carrier, String flightNum, String originCity,
+                 String destCity, int time, int price) {
+            int originId = originCity == null ? -1 : cities.id(originCity);
+            int destId = destCity == null ? -1 : cities.id(destCity);
+            if (day < 1 || day > MAX_DAY || originId < 0 || destId < 0) {
+                return;
+            }
+            if (size == this.fid.length) {
+                grow();
+            }
+            this.fid[size] = fid;
+            this.month[size] = month;
+            this.day[size] = day;
+            this.origin[size] = originId;
+            this.dest[size] = destId;
+            this.time[size] = time;
+            this.price[size] = price;
+            this.carrier[size] = intern(carrier);
+            this.flightNum[size] = intern(flightNum);
+            size++;
+        }
+
+        FlightIndex build() {
+            // the origin takes the top CITY_BITS bits of the sort key, of which the sign bit must stay clear
+            if (cities.size() > (1 << (CITY_BITS - 1))) {
+                throw new IllegalStateException("Too many cities for the flight index: " + cities.size());
+            }
+            FlightIndex index = new FlightIndex(cities, new Partition[MAX_DAY + 1][]);
+
+            // group row numbers by (month, day); rows are already in fid order
+            Map<Long, List<Integer>> groups = new TreeMap<>();
+            for (int row = 0; row < size; row++) {
+                long key = ((long) month[row] << 32) | day[row];
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+            }
+
+            List<List<Partition>> byDay = new ArrayList<>();
+            for (int d = 0; d <= MAX_DAY; d++) {
+                byDay.add(new ArrayList<>());
+            }
+            for (List<Integer> rows : groups.values()) {
+                Partition partition = partition(index, rows);
+                byDay.get(partition.day).add(partition);
+            }
+            for (int d = 0; d <= MAX_DAY; d++) {
+                index.partitionsByDay[d] = byDay.get(d).toArray(new Partition[0]);
+            }
+            return index;
+        }
+
+        private Partition partition(FlightIndex index, List<Integer> rows) {
+            if (rows.size() >= (1 << ROW_BITS)) {
+                throw new IllegalStateException("Too many flights in one day for the flight index: " + rows.size());
+            }
+            long[] keys = new long[rows.size()];
+            for (int i = 0; i < keys.length; i++) {
+                int row = rows.get(i);
+                long clampedTime = Math.max(0, Math.min(time[row], (1 << TIME_BITS) - 1));
+                keys[i] = ((long) origin[row] << (CITY_BITS + TIME_BITS + ROW_BITS))
+                        | ((long) dest[row] << (TIME_BITS + ROW_BITS))
+                        | (clampedTime << ROW_BITS)
+                        | i;
+            }
+            Arrays.sort(keys);
+
+            int first = rows.get(0);
+            Partition partition = index.new Partition(month[first], day[first], keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                int row = rows.get((int) (keys[i] & ((1L << ROW_BITS) - 1)));
+                partition.fid[i] = fid[row];
+                partition.origin[i] = origin[row];
+                partition.dest[i] = dest[row];
+                partition.time[i] = time[row];
+                partition.price[i] = price[row];
+                partition.carrier[i] = carrier[row];
+                partition.flightNum[i] = flightNum[row];
+                partition.originOffsets[origin[row] + 1]++;
+            }
+            for (int c = 0; c < cities.size(); c++) {
+                partition.originOffsets[c + 1] += partition.originOffsets[c];
+            }
+            partition.indexRoutes();
+            return partition;
+        }
+
+        private String intern(String value) {
+            if (value == null) {
+                return null;
+            }
+            String interned = strings.putIfAbsent(value, value);
+            return interned == null ? value : interned;
+        }
+
+        private void grow() {
+            int capacity = fid.length * 2;
+            fid = Arrays.copyOf(fid, capacity);
+            month = Arrays.copyOf(month, capacity);
+            day = Arrays.copyOf(day, capacity);
+            origin = Arrays.copyOf(origin, capacity);
+            dest = Arrays.copyOf(dest, capacity);
+            time = Arrays.copyOf(time, capacity);
+            price = Arrays.copyOf(price, capacity);
+            carrier = Arrays.copyOf(carrier, capacity);
+            flightNum = Arrays.copyOf(flightNum, capacity);
+        }
+    }
+}
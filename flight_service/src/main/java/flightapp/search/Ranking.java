@@ -0,0 +1,90 @@
+package flightapp.search;
+
+import flightapp.dto.Flight;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * How the routes of a {@link FlightIndex#routes} search are ranked. Ties are broken by the fids of
+ * the route in order.
+ */
+public enum Ranking {
+
+    /**
+     * Shortest total flight time first.
+     */
+    TIME,
+
+    /**
+     * Lowest total price first.
+     */
+    PRICE,
+
+    /**
+     * Fewest flights first, then shortest total flight time.
+     */
+    HOPS,
+
+    /**
+     * Only the routes no other route beats on both time and price, that is every route cheaper
+     * than all the faster ones, fastest first.
+     */
+    PARETO;
+
+    /**
+     * @return the order of the routes of this ranking, for merging those of several searches: by
+     *         (time, price, fids) for PARETO, which is not a ranking of all routes
+     */
+    Comparator<Flight[]> order() {
+        Comparator<Flight[]> byFids = (a, b) -> Arrays.compare(fids(a), fids(b));
+        switch (this) {
+            case PRICE:
+                return Comparator.comparingInt(Ranking::price).thenComparing(byFids);
+            case HOPS:
+                return Comparator.comparingInt((Flight[] route) -> route.length).thenComparingInt(Ranking::time)
+                        .thenComparing(byFids);
+            case PARETO:
+                return Comparator.comparingInt(Ranking::time).thenComparingInt(Ranking::price).thenComparing(byFids);
+            default:
+                return Comparator.comparingInt(Ranking::time).thenComparing(byFids);
+        }
+    }
+
+    static int time(Flight[] route) {
+        int time = 0;
+        for (Flight flight : route) {
+            time += flight.time;
+        }
+        return time;
+    }
+
+    static int price(Flight[] route) {
+        int price = 0;
+        for (Flight flight : route) {
+            price += flight.price;
+        }
+        return price;
+    }
+
+    private static int[] fids(Flight[] route) {
+        int[] fids = new int[route.length];
+        for (int leg = 0; leg < route.length; leg++) {
+            fids[leg] = route[leg].fid;
+        }
+        return fids;
+    }
+
+    /**
+     * @return the ranking called {@code name}, ignoring case, or null if there is none
+     */
+    public static Ranking of(String name) {
+        for (Ranking ranking : values()) {
+            if (ranking.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return ranking;
+            }
+        }
+        return null;
+    }
+}
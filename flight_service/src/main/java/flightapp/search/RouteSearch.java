@@ -0,0 +1,316 @@
+package flightapp.search;
+
+import flightapp.dto.Flight;
+
+import java.util.*;
+
+/**
+ * Finds the best routes of up to {@code maxLegs} flights between two cities on one day of the
+ * month, in the partitions of a {@link FlightIndex}, for a {@link Ranking}.
+ *
+ * A label is a route under construction: the flights taken so far and the city they end in. Each
+ * flight costs what the ranking orders by: its time, its price, or for {@link Ranking#HOPS} a
+ * constant larger than any route's time plus its time. Labels are expanded best first, by their
+ * cost so far plus a lower bound of the cost still needed to reach the destination with the legs
+ * left, so complete routes come out in ranking order. The bounds are computed for each search by
+ * relaxing the cheapest flight of every route of the day once per leg.
+ *
+ * Two things keep the number of labels small:
+ * <ul>
+ * <li>The flights between two cities are sorted by cost, so a label is first extended by the
+ * cheapest flight to each next city only. The next flight of that run is offered when the previous
+ * one is taken.</li>
+ * <li>A label is dominated, and not expanded, once {@code limit} cheaper labels with no more legs
+ * and no other cities have already left its city: each of them reaches the destination by the
+ * same flights as the dominated label would, for less.</li>
+ * </ul>
+ *
+ * {@link Ranking#PARETO} searches by time and keeps a complete route only if it is cheaper than
+ * every faster one. A label is dropped as soon as a lower bound of its price reaches the cheapest
+ * route found, and is dominated by a single faster label that is no more expensive. The search
+ * stops early once a route as cheap as the price bound of the origin is found.
+ */
+final class RouteSearch {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+    // cost of one flight of a HOPS search on top of its time, more than the time of any route
+    private static final int HOP = 1 << 17;
+
+    private final FlightIndex.Partition[] partitions;
+    private final int cityCount;
+    private final int origin;
+    private final int dest;
+    private final int maxLegs;
+    private final Ranking ranking;
+    private final int limit;
+
+    // bounds[p][legs * cityCount + city]: least cost from city to dest in at most legs flights
+    private final int[][] bounds;
+    // the same for the price, for PARETO searches only
+    private final int[][] priceBounds;
+    // labels expanded at city c of partition p, by p * cityCount + c; they may dominate later ones
+    private final Map<Integer, List<Label>> expanded = new HashMap<>();
+
+    private final PriorityQueue<Label> queue = new PriorityQueue<>();
+
+    // least price of the routes found, which a PARETO route has to beat
+    private int bestPrice = UNREACHABLE;
+
+    RouteSearch(FlightIndex.Partition[] partitions, int cityCount, int origin, int dest, int maxLegs, Ranking ranking,
+                int limit) {
+        this.partitions = partitions;
+        this.cityCount = cityCount;
+        this.origin = origin;
+        this.dest = dest;
+        this.maxLegs = maxLegs;
+        this.ranking = ranking;
+        this.limit = limit;
+        this.bounds = new int[partitions.length][];
+        this.priceBounds = new int[partitions.length][];
+    }
+
+    /**
+     * @return up to {@code limit} routes, ordered by (cost, fids), or by (time, price, fids) for a
+     *         PARETO search
+     */
+    List<Flight[]> run() {
+        // least price of any route, PARETO searches only
+        int cheapest = UNREACHABLE;
+        for (int p = 0; p < partitions.length; p++) {
+            bounds[p] = bounds(partitions[p], false);
+            if (ranking == Ranking.PARETO) {
+                priceBounds[p] = bounds(partitions[p], true);
+                cheapest = Math.min(cheapest, priceBounds[p][maxLegs * cityCount + origin]);
+            }
+            if (bounds[p][maxLegs * cityCount + origin] < UNREACHABLE) {
+                expand(p, null, origin);
+            }
+        }
+
+        List<Label> found = new ArrayList<>();
+        // complete routes of the same cost, sorted by fids once no other can tie with them
+        List<Label> tied = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            Label label = queue.poll();
+            if (!tied.isEmpty() && label.estimate > tied.get(0).cost) {
+                flush(tied, found);
+                if (found.size() >= limit || (ranking == Ranking.PARETO && bestPrice <= cheapest)) {
+                    break;
+                }
+            }
+            if (label.position + 1 < label.runEnd) {
+                offer(label.partition, label.position + 1, label.runEnd, label.parent);
+            }
+            if (ranking == Ranking.PARETO && label.price
+                    + priceBounds[label.partition][(maxLegs - label.legs) * cityCount + label.city] >= bestPrice) {
+                continue;
+            }
+            if (label.city == dest) {
+                tied.add(label);
+            } else if (!isDominated(label)) {
+                expand(label.partition, label, label.city);
+            }
+        }
+        flush(tied, found);
+
+        List<Flight[]> routes = new ArrayList<>();
+        for (int i = 0; i < found.size() && i < limit; i++) {
+            routes.add(flights(found.get(i)));
+        }
+        return routes;
+    }
+
+    /**
+     * Offers the cheapest flight to every city not yet on the route of {@code label}, or leaving the
+     * origin if {@code label} is null.
+     */
+    private void expand(int p, Label label, int city) {
+        FlightIndex.Partition partition = partitions[p];
+        if (label != null) {
+            expanded.computeIfAbsent(p * cityCount + city, key -> new ArrayList<>()).add(label);
+        }
+        for (int route = partition.originRoutes[city]; route < partition.originRoutes[city + 1]; route++) {
+            int start = partition.routeStarts[route];
+            if (!visits(label, partition.dest[start])) {
+                offer(p, start, partition.routeStarts[route + 1], label);
+            }
+        }
+    }
+
+    private void offer(int p, int position, int runEnd, Label parent) {
+        FlightIndex.Partition partition = partitions[p];
+        int row = row(partition, position);
+        int city = partition.dest[row];
+        int legs = parent == null ? 1 : parent.legs + 1;
+        int bound = bounds[p][(maxLegs - legs) * cityCount + city];
+        if (bound >= UNREACHABLE) {
+            return;
+        }
+        int cost = (parent == null ? 0 : parent.cost) + cost(partition, row);
+        int price = (parent == null ? 0 : parent.price) + partition.price[row];
+        queue.add(new Label(p, position, runEnd, row, parent, city, legs, cost, price, cost + bound));
+    }
+
+    /**
+     * @return the row at {@code position} of the order flights between two cities are tried in
+     */
+    private int row(FlightIndex.Partition partition, int position) {
+        return ranking == Ranking.PRICE ? partition.byPrice[position] : position;
+    }
+
+    private int cost(FlightIndex.Partition partition, int row) {
+        switch (ranking) {
+            case PRICE:
+                return partition.price[row];
+            case HOPS:
+                return HOP + partition.time[row];
+            default:
+                return partition.time[row];
+        }
+    }
+
+    /**
+     * @return true if {@code limit} labels expanded at the city of {@code label} were cheaper, had
+     *         no more legs and visited no city that {@code label} did not; for a PARETO search, if
+     *         one such label was faster and no more expensive
+     */
+    private boolean isDominated(Label label) {
+        int needed = ranking == Ranking.PARETO ? 1 : limit;
+        List<Label> labels = expanded.get(label.partition * cityCount + label.city);
+        if (labels == null || labels.size() < needed) {
+            return false;
+        }
+        int dominating = 0;
+        for (Label other : labels) {
+            if (other.cost < label.cost && other.legs <= label.legs
+                    && (ranking != Ranking.PARETO || other.price <= label.price) && visitsOnly(other, label)) {
+                if (++dominating >= needed) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the route of {@code label} starts or stops at {@code city}
+     */
+    private boolean visits(Label label, int city) {
+        if (city == origin) {
+            return true;
+        }
+        for (Label l = label; l != null; l = l.parent) {
+            if (l.city == city) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every city of the route of {@code label} is on the route of {@code other}
+     */
+    private boolean visitsOnly(Label label, Label other) {
+        for (Label l = label; l != null; l = l.parent) {
+            if (!visits(other, l.city)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Least cost, or price if {@code price} is true, from every city to the destination in at most
+     * 0 .. maxLegs flights.
+     */
+    private int[] bounds(FlightIndex.Partition partition, boolean price) {
+        int[] bounds = new int[(maxLegs + 1) * cityCount];
+        Arrays.fill(bounds, UNREACHABLE);
+        bounds[dest] = 0;
+        for (int legs = 1; legs <= maxLegs; legs++) {
+            int previous = (legs - 1) * cityCount;
+            int current = legs * cityCount;
+            System.arraycopy(bounds, previous, bounds, current, cityCount);
+            for (int route = 0; route + 1 < partition.routeStarts.length; route++) {
+                int start = partition.routeStarts[route];
+                int rest = bounds[previous + partition.dest[start]];
+                if (rest < UNREACHABLE) {
+                    int cheapest = price
+                            ? partition.price[partition.byPrice[start]] : cost(partition, row(partition, start));
+                    int from = current + partition.origin[start];
+                    bounds[from] = Math.min(bounds[from], cheapest + rest);
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Moves the routes of {@code tied} to {@code found} ordered by their fids. A PARETO search
+     * orders them by price first, and only keeps those cheaper than every route found before.
+     */
+    private void flush(List<Label> tied, List<Label> found) {
+        Comparator<Label> byFids = (a, b) -> Arrays.compare(fids(a), fids(b));
+        tied.sort(ranking == Ranking.PARETO ? Comparator.comparingInt((Label l) -> l.price).thenComparing(byFids)
+                : byFids);
+        for (Label label : tied) {
+            if (ranking != Ranking.PARETO || label.price < bestPrice) {
+                found.add(label);
+                bestPrice = Math.min(bestPrice, label.price);
+            }
+        }
+        tied.clear();
+    }
+
+    private int[] fids(Label label) {
+        int[] fids = new int[label.legs];
+        for (Label l = label; l != null; l = l.parent) {
+            fids[l.legs - 1] = partitions[l.partition].fid[l.row];
+        }
+        return fids;
+    }
+
+    private Flight[] flights(Label label) {
+        Flight[] flights = new Flight[label.legs];
+        for (Label l = label; l != null; l = l.parent) {
+            flights[l.legs - 1] = partitions[l.partition].flight(l.row);
+        }
+        return flights;
+    }
+
+    /**
+     * A route that took flight {@code row} of partition {@code partition} last.
+     */
+    private static final class Label implements Comparable<Label> {
+        final int partition;
+        // position of row in the run of flights between the same two cities, and the end of the run
+        final int position;
+        final int runEnd;
+        final int row;
+        final Label parent;
+        final int city;
+        final int legs;
+        final int cost;
+        final int price;
+        final int estimate;
+
+        Label(int partition, int position, int runEnd, int row, Label parent, int city, int legs, int cost, int price,
+              int estimate) {
+            this.partition = partition;
+            this.position = position;
+            this.runEnd = runEnd;
+            this.row = row;
+            this.parent = parent;
+            this.city = city;
+            this.legs = legs;
+            this.cost = cost;
+            this.price = price;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int compareTo(Label other) {
+            return Integer.compare(estimate, other.estimate);
+        }
+    }
+}
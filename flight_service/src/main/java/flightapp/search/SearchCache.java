@@ -0,0 +1,225 @@
+package flightapp.search;
+
+import flightapp.dto.Itinerary;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendered search results shared by every session, keyed by the search parameters.
+ *
+ * The cache holds at most {@code maxEntries} results, evicting the least recently used one, and
+ * drops results older than the time-to-live. Because results show flight capacities, every
+ * result that contains a flight is dropped as soon as {@link #invalidate(int)} is called for it.
+ */
+public class SearchCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<Integer, Set<Key>> keysByFid = new HashMap<>();
+
+    // bumped on every invalidation; the value it took at the last invalidation of each fid lets
+    // put() refuse results whose own flights were invalidated after their search was stamped; it
+    // holds at most one entry per flight
+    private long invalidations = 0;
+    private final Map<Integer, Long> invalidatedAt = new HashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidatedEntries = 0;
+
+    public SearchCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the cached result for the search, or null if there is none or it expired
+     */
+    public synchronized Result get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.createdAt > ttlNanos) {
+            remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * Token to pass to {@link #put(Key, Result, long)}, taken before the search reads capacities.
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Caches a result unless one of its flights was invalidated after {@code stamp} was taken, in
+     * which case the capacities in the result may already be stale. Invalidations of other
+     * flights do not matter.
+     */
+    public synchronized void put(Key key, Result result, long stamp) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (stamp != invalidations) {
+            for (int fid : result.fids) {
+                Long at = invalidatedAt.get(fid);
+                if (at != null && at > stamp) {
+                    return;
+                }
+            }
+        }
+        remove(key);
+        entries.put(key, new Entry(result, System.nanoTime()));
+        for (int fid : result.fids) {
+            keysByFid.computeIfAbsent(fid, f -> new HashSet<>()).add(key);
+        }
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops every result that contains flight {@code fid}. Called whenever its capacity changes.
+     */
+    public synchronized void invalidate(int fid) {
+        invalidatedAt.put(fid, ++invalidations);
+        Set<Key> keys = keysByFid.remove(fid);
+        if (keys == null) {
+            return;
+        }
+        for (Key key : new ArrayList<>(keys)) {
+            if (remove(key)) {
+                invalidatedEntries++;
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the cache counters
+     */
+    public synchronized String stats() {
+        return "entries: " + entries.size() + " hits: " + hits + " misses: " + misses
+                + " evictions: " + evictions + " invalidations: " + invalidatedEntries;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    private boolean remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        for (int fid : entry.result.fids) {
+            Set<Key> keys = keysByFid.get(fid);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByFid.remove(fid);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        final Result result;
+        final long createdAt;
+
+        Entry(Result result, long createdAt) {
+            this.result = result;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * The parameters of one search.
+     */
+    public static final class Key {
+        private final String originCity;
+        private final String destinationCity;
+        private final int maxLegs;
+        private final Ranking ranking;
+        private final int firstDay;
+        private final int lastDay;
+        private final int numberOfItineraries;
+
+        /**
+         * @param ranking  how the itineraries are ranked, or null if direct flights are listed before
+         *                 the others
+         * @param firstDay first day of the month searched, the same as {@code lastDay} for a search
+         *                 of one day
+         */
+        public Key(String originCity, String destinationCity, int maxLegs, Ranking ranking, int firstDay, int lastDay,
+                   int numberOfItineraries) {
+            this.originCity = originCity;
+            this.destinationCity = destinationCity;
+            this.maxLegs = maxLegs;
+            this.ranking = ranking;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+            this.numberOfItineraries = numberOfItineraries;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return maxLegs == other.maxLegs && ranking == other.ranking && firstDay == other.firstDay
+                    && lastDay == other.lastDay && numberOfItineraries == other.numberOfItineraries
+                    && originCity.equals(other.originCity) && destinationCity.equals(other.destinationCity);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(originCity, destinationCity, maxLegs, ranking, firstDay, lastDay, numberOfItineraries);
+        }
+    }
+
+    /**
+     * A rendered search and the itineraries it numbered, which a session registers on a hit.
+     */
+    public static final class Result {
+        public final String text;
+        public final List<Itinerary> itineraries;
+        private final int[] fids;
+
+        public Result(String text, List<Itinerary> itineraries) {
+            this.text = text;
+            this.itineraries = Collections.unmodifiableList(new ArrayList<>(itineraries));
+            Set<Integer> fids = new HashSet<>();
+            for (Itinerary itinerary : itineraries) {
+                for (int fid : itinerary.fids) {
+                    fids.add(fid);
+                }
+            }
+            this.fids = fids.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package flightapp.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers of one size, reused instead of being allocated per connection.
+ *
+ * Direct buffers are expensive to allocate and are only freed by the garbage collector, so the
+ * pool keeps up to {@code maxRetained} released buffers for later use and drops the rest.
+ */
+class BufferPool {
+
+    private final int bufferSize;
+    private final int maxRetained;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retained = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    BufferPool(int bufferSize, int maxRetained) {
+        this.bufferSize = bufferSize;
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * @return a cleared buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        retained.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (retained.incrementAndGet() <= maxRetained) {
+            free.offer(buffer);
+        } else {
+            retained.decrementAndGet();
+        }
+    }
+
+    int allocated() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,193 @@
+package flightapp.server;
+
+import flightapp.Query;
+import flightapp.db.ConnectionPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the line-based command protocol of {@code FlightService} to many clients at once.
+ *
+ * Every connection gets its own {@link Session}, and with it its own {@link Query}, so logins and
+ * search results stay private to the connection. A session reads its socket on a reader thread of
+ * its own, with a small stack, that does nothing but wait for the next line; each command read is
+ * run on a fixed-size executor shared by all sessions, so an idle client costs a parked reader and
+ * never a worker. When {@code maxSessions} sessions are open the acceptor stops accepting, and new
+ * clients wait in the listen backlog until a session ends. Sessions that send nothing for the idle
+ * timeout are evicted.
+ */
+public class FlightServer implements AutoCloseable {
+
+    // stack of a reader thread, which only reads lines and waits for their commands to run
+    private static final long READER_STACK_SIZE = 128 * 1024;
+
+    private final ConnectionPool pool;
+    private final int port;
+    private final int maxSessions;
+    private final int idleTimeoutMillis;
+    private final int backlog;
+
+    private final ExecutorService workers;
+    private final Semaphore sessionPermits;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger readerCount = new AtomicInteger();
+    private ServerSocket serverSocket;
+    private volatile boolean closed = false;
+
+    // metrics
+    private final LongAdder acceptedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder commandCount = new LongAdder();
+
+    /**
+     * @param pool              connections shared by the sessions
+     * @param port              port to listen on, 0 to pick a free one
+     * @param workerThreads     threads running commands
+     * @param maxSessions       open sessions, further clients wait in the listen backlog
+     * @param idleTimeoutMillis sessions idle for longer than this are closed
+     * @param backlog           connections the operating system queues while all sessions are open
+     */
+    public FlightServer(ConnectionPool pool, int port, int workerThreads, int maxSessions, int idleTimeoutMillis,
+                        int backlog) {
+        if (workerThreads < 1 || maxSessions < 1) {
+            throw new IllegalArgumentException("Workers and sessions must be positive");
+        }
+        this.pool = pool;
+        this.port = port;
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.backlog = backlog;
+        this.sessionPermits = new Semaphore(maxSessions);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread thread = new Thread(r, "flight-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Binds the listening socket.
+     *
+     * @return the port the server listens on
+     */
+    public int bind() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port), backlog);
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed. Blocks the calling thread.
+     *
+     * The shared flight index is loaded first, so starting a session never waits for it.
+     */
+    public void serve() throws IOException {
+        try {
+            Query.loadFlightIndex(pool);
+        } catch (SQLException e) {
+            throw new IOException("Failed to load the flight index", e);
+        }
+        if (serverSocket == null) {
+            bind();
+        }
+        while (!closed) {
+            try {
+                sessionPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                sessionPermits.release();
+                if (closed) {
+                    return;
+                }
+                throw e;
+            }
+            acceptedCount.increment();
+            Session session = new Session(this, socket);
+            sessions.add(session);
+            Thread reader = new Thread(null, session, "flight-session-" + readerCount.incrementAndGet(),
+                    READER_STACK_SIZE);
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    ConnectionPool pool() {
+        return pool;
+    }
+
+    /**
+     * Runs a command of a session on the workers. The reader of the session waits for it, holding
+     * no worker.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the server is closing
+     */
+    String execute(Query query, String command) throws InterruptedException, ExecutionException {
+        String response = workers.submit(() -> Protocol.execute(query, command)).get();
+        commandCount.increment();
+        return response;
+    }
+
+    int idleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    void sessionEvicted() {
+        evictedCount.increment();
+    }
+
+    void sessionEnded(Session session) {
+        if (sessions.remove(session)) {
+            sessionPermits.release();
+        }
+    }
+
+    /**
+     * @return a snapshot of the server counters
+     */
+    public String stats() {
+        return "sessions: " + sessions.size() + " max: " + maxSessions + " accepted: " + acceptedCount.sum()
+                + " evicted: " + evictedCount.sum() + " commands: " + commandCount.sum();
+    }
+
+    /**
+     * Stops accepting connections and closes every open session.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (Session session : sessions) {
+            session.close();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package flightapp.server;
+
+import flightapp.Query;
+import flightapp.db.ConnectionPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the line-based command protocol of {@code FlightService} from a single selector thread.
+ *
+ * Unlike {@link FlightServer}, an idle connection does not hold a thread, so one server can keep
+ * many thousands of sessions open. Clients may pipeline commands: they can send any number of
+ * commands without waiting for replies, and the replies come back in the order of the commands.
+ * Commands run on a fixed pool of workers. A session whose client sends commands faster than they
+ * run stops being read once {@code maxPipelined} commands are queued, which pushes back on the
+ * client through TCP flow control.
+ *
+ * Reads go through one direct buffer owned by the selector thread. Write buffers are direct
+ * buffers taken from a pool while a session has bytes to send and returned once they are sent.
+ *
+ * @see Protocol
+ */
+public class NioFlightServer implements AutoCloseable {
+
+    private static final long TICK_MILLIS = 250;
+
+    private final ConnectionPool pool;
+    private final int port;
+    private final int maxSessions;
+    private final int maxPipelined;
+    private final int maxLineLength;
+    private final long idleTimeoutNanos;
+
+    private final ExecutorService workers;
+    private final BufferPool buffers;
+    private final Set<NioSession> sessions = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<NioSession> updated = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean closed = false;
+    private volatile boolean serving = false;
+
+    // metrics
+    private final LongAdder acceptedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder commandCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+
+    /**
+     * @param pool              connections shared by the sessions
+     * @param port              port to listen on, 0 to pick a free one
+     * @param workerThreads     threads running commands
+     * @param maxSessions       open sessions, further clients wait in the listen backlog
+     * @param maxPipelined      queued commands per session before the session stops being read
+     * @param idleTimeoutMillis sessions idle for longer than this are closed
+     * @param bufferSize        size of the pooled direct buffers, also the longest command accepted
+     */
+    public NioFlightServer(ConnectionPool pool, int port, int workerThreads, int maxSessions, int maxPipelined,
+                           long idleTimeoutMillis, int bufferSize) {
+        if (workerThreads < 1 || maxSessions < 1 || maxPipelined < 1) {
+            throw new IllegalArgumentException("Workers, sessions and pipeline depth must be positive");
+        }
+        this.pool = pool;
+        this.port = port;
+        this.maxSessions = maxSessions;
+        this.maxPipelined = maxPipelined;
+        this.maxLineLength = bufferSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.buffers = new BufferPool(bufferSize, Math.max(16, workerThreads * 4));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread thread = new Thread(r, "flight-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Binds the listening socket.
+     *
+     * @return the port the server listens on
+     */
+    public int bind() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Runs the selector loop until the server is closed. Blocks the calling thread.
+     *
+     * The shared flight index is loaded first, so accepting a session never waits for it.
+     */
+    public void serve() throws IOException {
+        try {
+            Query.loadFlightIndex(pool);
+        } catch (SQLException e) {
+            throw new IOException("Failed to load the flight index", e);
+        }
+        if (selector == null) {
+            bind();
+        }
+        serving = true;
+        ByteBuffer readBuffer = buffers.acquire();
+        long nextEvictionAt = System.nanoTime();
+        try {
+            while (!closed) {
+                selector.select(TICK_MILLIS);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    NioSession session = (NioSession) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(session, readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(session);
+                        }
+                    } catch (IOException e) {
+                        session.inputClosed = true;
+                        closeSession(session);
+                    }
+                }
+
+                NioSession session;
+                while ((session = updated.poll()) != null) {
+                    update(session);
+                }
+
+                long now = System.nanoTime();
+                if (now - nextEvictionAt >= 0) {
+                    evictIdle(now);
+                    nextEvictionAt = now + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * 4);
+                }
+            }
+        } finally {
+            buffers.release(readBuffer);
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while (sessions.size() < maxSessions && (channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            NioSession session;
+            try {
+                session = new NioSession(channel, new Query(pool));
+            } catch (SQLException e) {
+                e.printStackTrace();
+                channel.close();
+                continue;
+            }
+            session.key = channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+            acceptedCount.increment();
+        }
+        if (sessions.size() >= maxSessions) {
+            serverChannel.keyFor(selector).interestOps(0);
+        }
+    }
+
+    private void read(NioSession session, ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int n = session.channel.read(readBuffer);
+        session.lastActiveAt = System.nanoTime();
+        if (n < 0) {
+            session.inputClosed = true;
+        } else {
+            readBuffer.flip();
+            int queued = session.parse(readBuffer, maxLineLength);
+            if (queued < 0) {
+                closeSession(session);
+                return;
+            }
+            commandCount.add(queued);
+        }
+        if (session.claimWorker()) {
+            workers.execute(() -> session.drain(() -> responded(session)));
+        }
+        update(session);
+    }
+
+    /**
+     * Writes as much of the queued responses as the socket takes without blocking.
+     */
+    private void write(NioSession session) throws IOException {
+        while (true) {
+            if (session.writeBuffer == null) {
+                if (!session.hasResponses()) {
+                    return;
+                }
+                session.writeBuffer = buffers.acquire();
+            }
+            ByteBuffer buffer = session.writeBuffer;
+            session.fill(buffer);
+            buffer.flip();
+            session.channel.write(buffer);
+            boolean sent = !buffer.hasRemaining();
+            buffer.compact();
+            session.lastActiveAt = System.nanoTime();
+            if (!sent) {
+                return;
+            }
+            if (!session.hasResponses()) {
+                session.writeBuffer = null;
+                buffers.release(buffer);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called by a worker whenever it queued a response or stopped, to let the selector thread
+     * write the response and re-evaluate the session.
+     */
+    private void responded(NioSession session) {
+        updated.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Brings the interest set of a session in line with its state, and closes it once it is done.
+     */
+    private void update(NioSession session) throws IOException {
+        if (!session.key.isValid()) {
+            return;
+        }
+        try {
+            write(session);
+        } catch (IOException e) {
+            closeSession(session);
+            return;
+        }
+        if (session.isFinished()) {
+            closeSession(session);
+            return;
+        }
+        if (session.claimWorker()) {
+            workers.execute(() -> session.drain(() -> responded(session)));
+        }
+
+        int ops = 0;
+        if (session.acceptsInput()) {
+            if (session.pendingCommands() < maxPipelined) {
+                ops |= SelectionKey.OP_READ;
+            } else {
+                throttledCount.increment();
+            }
+        }
+        if (session.writeBuffer != null || session.hasResponses()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        session.key.interestOps(ops);
+    }
+
+    private void evictIdle(long now) throws IOException {
+        for (NioSession session : sessions) {
+            if (now - session.lastActiveAt > idleTimeoutNanos && session.evict()) {
+                evictedCount.increment();
+                update(session);
+            }
+        }
+    }
+
+    private void closeSession(NioSession session) {
+        if (!sessions.remove(session)) {
+            return;
+        }
+        session.key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (session.writeBuffer != null) {
+            buffers.release(session.writeBuffer);
+            session.writeBuffer = null;
+        }
+        // the worker of a running command gives the connection back itself once the command ends
+        session.close();
+        SelectionKey acceptKey = serverChannel.keyFor(selector);
+        if (acceptKey != null && acceptKey.isValid()) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * @return a snapshot of the server counters
+     */
+    public String stats() {
+        return "sessions: " + sessions.size() + " max: " + maxSessions + " accepted: " + acceptedCount.sum()
+                + " evicted: " + evictedCount.sum() + " commands: " + commandCount.sum()
+                + " throttled: " + throttledCount.sum() + " buffers: " + buffers.allocated();
+    }
+
+    /**
+     * Stops the selector loop, which then closes every open session.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (serving) {
+            selector.wakeup();
+        } else {
+            shutdown();
+        }
+    }
+
+    private void shutdown() throws IOException {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (NioSession session : sessions) {
+            closeSession(session);
+        }
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (selector != null) {
+            selector.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package flightapp.server;
+
+import flightapp.Query;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+
+/**
+ * One client connection of a {@link NioFlightServer} and the {@link Query} holding its state.
+ *
+ * The selector thread cuts the bytes the client sends into lines and queues the bytes of each
+ * command; the worker that runs a command decodes it straight into its tokenizer. A worker runs the queued commands one at a time, in arrival order, and queues their
+ * responses for the selector thread to write. A session never has more than one worker, so its
+ * {@link Query} is only used by one thread at a time and responses keep the order of commands.
+ */
+class NioSession {
+
+    private static final int INITIAL_LINE_CAPACITY = 128;
+
+    final SocketChannel channel;
+    final Query query;
+    SelectionKey key;
+
+    // selector thread only; the start of a command cut off at the end of a read
+    private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+    private int lineLength = 0;
+    ByteBuffer writeBuffer;
+    long lastActiveAt;
+    boolean inputClosed = false;
+
+    // guarded by this
+    private final ArrayDeque<byte[]> commands = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> responses = new ArrayDeque<>();
+    private boolean running = false;
+    private boolean closing = false;
+    // set by the selector thread when it drops the session
+    private boolean closed = false;
+
+    NioSession(SocketChannel channel, Query query) {
+        this.channel = channel;
+        this.query = query;
+        this.lastActiveAt = System.nanoTime();
+    }
+
+    /**
+     * Splits the bytes between position and limit of {@code input} into commands and queues them.
+     * A command cut off at the end of the buffer is kept until the rest of it arrives.
+     *
+     * @return the number of commands queued, or -1 if a command is longer than
+     *         {@code maxLineLength}
+     */
+    int parse(ByteBuffer input, int maxLineLength) {
+        int queued = 0;
+        int start = input.position();
+        int limit = input.limit();
+        for (int i = start; i < limit; i++) {
+            if (input.get(i) == '\n') {
+                int length = lineLength + i - start;
+                if (length > maxLineLength) {
+                    return -1;
+                }
+                boolean cr = i > start ? input.get(i - 1) == '\r' : lineLength > 0 && line[lineLength - 1] == '\r';
+                if (cr) {
+                    length--;
+                }
+                // most commands arrive whole and are copied once, from the read buffer
+                byte[] command = new byte[length];
+                int pending = Math.min(lineLength, length);
+                System.arraycopy(line, 0, command, 0, pending);
+                input.position(start);
+                input.get(command, pending, length - pending);
+                if (offer(command)) {
+                    queued++;
+                }
+                lineLength = 0;
+                start = i + 1;
+            }
+        }
+        if (!append(input, start, limit, maxLineLength)) {
+            return -1;
+        }
+        input.position(limit);
+        return queued;
+    }
+
+    private boolean append(ByteBuffer input, int from, int to, int maxLineLength) {
+        int length = to - from;
+        if (lineLength + length > maxLineLength) {
+            return false;
+        }
+        if (lineLength + length > line.length) {
+            byte[] grown = new byte[Math.min(maxLineLength, Math.max(2 * line.length, lineLength + length))];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        input.position(from);
+        input.get(line, lineLength, length);
+        lineLength += length;
+        return true;
+    }
+
+    private synchronized boolean offer(byte[] command) {
+        if (closing) {
+            return false;
+        }
+        commands.add(command);
+        return true;
+    }
+
+    /**
+     * Marks the session as running if it has commands and no worker yet.
+     *
+     * @return true if the caller must start a worker for the session
+     */
+    synchronized boolean claimWorker() {
+        if (running || commands.isEmpty() || closing) {
+            return false;
+        }
+        running = true;
+        return true;
+    }
+
+    /**
+     * Runs queued commands until none are left. Called by the worker claimed with
+     * {@link #claimWorker()}.
+     *
+     * @param onResponse called after every response is queued, to get it written
+     */
+    void drain(Runnable onResponse) {
+        while (true) {
+            byte[] command;
+            boolean release = false;
+            synchronized (this) {
+                command = closing ? null : commands.poll();
+                if (command == null) {
+                    commands.clear();
+                    running = false;
+                    release = closed;
+                }
+            }
+            if (command == null) {
+                if (release) {
+                    closeQuery();
+                }
+                onResponse.run();
+                return;
+            }
+            String response = Protocol.execute(query, command);
+            ByteBuffer bytes = ByteBuffer.wrap(Protocol.frame(response).getBytes(StandardCharsets.UTF_8));
+            synchronized (this) {
+                responses.add(bytes);
+                if (response.equals(Protocol.GOODBYE)) {
+                    closing = true;
+                }
+            }
+            onResponse.run();
+        }
+    }
+
+    /**
+     * Drops the queued commands and gives the connection of the {@link Query} back to the pool:
+     * right away if no command is running, otherwise from the worker once the running command has
+     * committed or rolled back, so the connection is never returned mid-transaction.
+     */
+    void close() {
+        synchronized (this) {
+            closing = true;
+            closed = true;
+            commands.clear();
+            if (running) {
+                return;
+            }
+        }
+        closeQuery();
+    }
+
+    private void closeQuery() {
+        try {
+            query.closeConnection();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Queues the time-out notice and closes the session once it is written, unless a command is
+     * queued or running.
+     *
+     * @return true if the session is being evicted
+     */
+    synchronized boolean evict() {
+        if (running || closing || !commands.isEmpty() || !responses.isEmpty()) {
+            return false;
+        }
+        responses.add(ByteBuffer.wrap(Protocol.frame(Protocol.TIMED_OUT).getBytes(StandardCharsets.UTF_8)));
+        closing = true;
+        return true;
+    }
+
+    /**
+     * Moves queued response bytes into {@code buffer} until it is full or no response is left.
+     */
+    synchronized void fill(ByteBuffer buffer) {
+        ByteBuffer head;
+        while (buffer.hasRemaining() && (head = responses.peek()) != null) {
+            int n = Math.min(head.remaining(), buffer.remaining());
+            int limit = head.limit();
+            head.limit(head.position() + n);
+            buffer.put(head);
+            head.limit(limit);
+            if (!head.hasRemaining()) {
+                responses.poll();
+            }
+        }
+    }
+
+    synchronized boolean hasResponses() {
+        return !responses.isEmpty();
+    }
+
+    synchronized int pendingCommands() {
+        return commands.size();
+    }
+
+    /**
+     * @return true once the session has nothing left to read, run or write
+     */
+    synchronized boolean isFinished() {
+        boolean noMoreInput = closing || inputClosed;
+        boolean unwritten = !responses.isEmpty() || (writeBuffer != null && writeBuffer.position() > 0);
+        return noMoreInput && !running && (commands.isEmpty() || closing) && !unwritten;
+    }
+
+    synchronized boolean acceptsInput() {
+        return !closing && !inputClosed;
+    }
+}
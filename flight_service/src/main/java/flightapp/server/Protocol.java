@@ -0,0 +1,49 @@
+package flightapp.server;
+
+import flightapp.FlightService;
+import flightapp.Query;
+
+/**
+ * The line-based command protocol spoken by both servers.
+ *
+ * The client sends one command per line. Each response is written as returned by
+ * {@link FlightService#execute(Query, String)}, terminated by a newline if it lacks one and
+ * followed by an empty line, which marks its end.
+ */
+final class Protocol {
+
+    static final String GOODBYE = "Goodbye\n";
+    static final String TIMED_OUT = "Session timed out\n";
+
+    private Protocol() {
+    }
+
+    /**
+     * Runs one command. Malformed arguments fail the command, not the session.
+     */
+    static String execute(Query query, String command) {
+        try {
+            return FlightService.execute(query, command);
+        } catch (RuntimeException e) {
+            return "Error: " + e.getMessage() + "\n";
+        }
+    }
+
+    /**
+     * Like {@link #execute(Query, String)}, for a command read as UTF-8 bytes.
+     */
+    static String execute(Query query, byte[] command) {
+        try {
+            return FlightService.execute(query, command, 0, command.length);
+        } catch (RuntimeException e) {
+            return "Error: " + e.getMessage() + "\n";
+        }
+    }
+
+    /**
+     * @return {@code response} as it is sent to the client
+     */
+    static String frame(String response) {
+        return response.endsWith("\n") ? response + "\n" : response + "\n\n";
+    }
+}
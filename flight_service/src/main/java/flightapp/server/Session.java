@@ -0,0 +1,98 @@
+package flightapp.server;
+
+import flightapp.Query;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One client connection of a {@link FlightServer} and the {@link Query} holding its state. It runs
+ * on the reader thread of the connection, and hands every command to the workers of the server,
+ * one at a time, so the query is never used by two threads at once.
+ *
+ * @see Protocol
+ */
+class Session implements Runnable {
+
+    private final FlightServer server;
+    private final Socket socket;
+
+    Session(FlightServer server, Socket socket) {
+        this.server = server;
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        Query query = null;
+        Writer out = null;
+        try {
+            socket.setSoTimeout(server.idleTimeoutMillis());
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            query = new Query(server.pool());
+
+            String command;
+            while ((command = in.readLine()) != null) {
+                String response = server.execute(query, command);
+                respond(out, response);
+                if (response.equals(Protocol.GOODBYE)) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            server.sessionEvicted();
+            try {
+                respond(out, Protocol.TIMED_OUT);
+            } catch (IOException ignored) {
+                // the client is gone as well
+            }
+        } catch (IOException e) {
+            // connection reset by the client or closed by the server
+        } catch (RejectedExecutionException e) {
+            // the server is closing
+        } catch (ExecutionException | SQLException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (query != null) {
+                try {
+                    query.closeConnection();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            close();
+            server.sessionEnded(this);
+        }
+    }
+
+    private static void respond(Writer out, String response) throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.write(Protocol.frame(response));
+        out.flush();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
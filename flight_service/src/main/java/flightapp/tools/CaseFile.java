@@ -0,0 +1,103 @@
+package flightapp.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A test case from the {@code cases} directory.
+ *
+ * A case lists, for every user, the commands that user runs followed by the results the user may
+ * see. Lines starting with {@code #} are comments, {@code *} switches between commands and
+ * results, and {@code |} separates alternative results.
+ */
+public class CaseFile {
+
+    static final String COMMENTS = "#";
+    static final String DELIMITER = "*";
+    static final String SEPARATOR = "|";
+
+    private final Path path;
+    private final List<List<String>> users;
+
+    private CaseFile(Path path, List<List<String>> users) {
+        this.path = path;
+        this.users = users;
+    }
+
+    /**
+     * Parses the case in {@code file}.
+     *
+     * @throws IllegalArgumentException if the file is malformed
+     */
+    public static CaseFile parse(Path file) throws IOException {
+        List<List<String>> users = new ArrayList<>();
+        List<String> commands = new ArrayList<>();
+        boolean isCmd = true;
+        boolean hasResult = false;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String l;
+            while ((l = reader.readLine()) != null) {
+                lineNumber++;
+                if (l.startsWith(COMMENTS)) {
+                    continue;
+                } else if (l.startsWith(DELIMITER)) {
+                    if (!isCmd) {
+                        users.add(Collections.unmodifiableList(commands));
+                        commands = new ArrayList<>();
+                        hasResult = false;
+                    }
+                    isCmd = !isCmd;
+                } else if (l.startsWith(SEPARATOR)) {
+                    if (isCmd) {
+                        throw new IllegalArgumentException(
+                                "ERROR: input file is malformatted on line: " + lineNumber);
+                    }
+                } else if (isCmd) {
+                    // Ignore trailing comments
+                    commands.add(l.split(COMMENTS, 2)[0]);
+                } else {
+                    hasResult = true;
+                }
+            }
+        }
+        if (!commands.isEmpty() || hasResult) {
+            throw new IllegalArgumentException("ERROR: input file is malformatted, extra information found in " + file);
+        }
+        return new CaseFile(file, Collections.unmodifiableList(users));
+    }
+
+    /**
+     * Parses every {@code .txt} case under {@code root}, in path order.
+     */
+    public static List<CaseFile> parseAll(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> p.toString().endsWith(".txt")).sorted().collect(Collectors.toList());
+        }
+        List<CaseFile> cases = new ArrayList<>();
+        for (Path file : files) {
+            cases.add(parse(file));
+        }
+        return cases;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * @return the commands of every user of the case, in the order the users appear
+     */
+    public List<List<String>> users() {
+        return users;
+    }
+}
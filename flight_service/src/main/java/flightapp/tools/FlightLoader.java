@@ -0,0 +1,511 @@
+package flightapp.tools;
+
+import flightapp.Util;
+import flightapp.db.ConnectionPool;
+import flightapp.db.PooledConnection;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a CSV file of flights into the Flights table.
+ *
+ * Every line holds the 18 columns of Flights in table order, from fid to price; an empty number
+ * is stored as NULL and a first line that does not start with a number is taken for a header.
+ * The file is memory-mapped a window at a time and numbers are parsed straight from its bytes.
+ * Text columns repeat a few thousand values (cities, states, carriers, flight numbers), so each
+ * distinct value becomes a String once.
+ *
+ * Rows are inserted in JDBC batches, a transaction per batch. The batch size adapts so a batch
+ * takes about {@code targetBatchMillis}: bigger batches save round trips, but a batch that takes
+ * too long holds locks and loses more work if the load dies. Every batch commits the file offset
+ * it reached to the FlightLoads table together with its rows, so a load that stopped resumes after
+ * the last committed batch, without gaps or duplicates.
+ *
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=flightapp.tools.FlightLoader -Dexec.args="flights.csv --truncate"
+ * </pre>
+ */
+public class FlightLoader {
+
+    static final int COLUMNS = 18;
+
+    private static final String INSERT = "INSERT INTO Flights(fid, month_id, day_of_month_id, day_of_week_id, "
+            + "carrier_id, flight_num, origin_city, origin_state, dest_city, dest_state, departure_delay, taxi_out, "
+            + "arrival_delay, canceled, actual_time, distance, capacity, price) "
+            + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String READ_CHECKPOINT =
+            "SELECT file_size, next_offset, rows_loaded FROM FlightLoads WHERE source = ?";
+    private static final String CREATE_CHECKPOINT =
+            "INSERT INTO FlightLoads(source, file_size, next_offset, rows_loaded) VALUES(?, ?, 0, 0)";
+    private static final String RESET_CHECKPOINT =
+            "UPDATE FlightLoads SET file_size = ?, next_offset = 0, rows_loaded = 0 WHERE source = ?";
+    private static final String SAVE_CHECKPOINT =
+            "UPDATE FlightLoads SET next_offset = ?, rows_loaded = ? WHERE source = ?";
+
+    // carrier_id through dest_state hold text, every other column a number
+    private static final int FIRST_TEXT_COLUMN = 4;
+    private static final int LAST_TEXT_COLUMN = 9;
+
+    // marks an empty number, stored as NULL
+    private static final long NULL = Long.MIN_VALUE;
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ConnectionPool pool;
+    private final Options options;
+
+    FlightLoader(ConnectionPool pool, Options options) {
+        this.pool = pool;
+        this.options = options;
+    }
+
+    static final class Options {
+        int minBatch = 100;
+        int maxBatch = 20000;
+        long targetBatchMillis = 500;
+        int windowBytes = 64 << 20;
+        boolean truncate = false;
+        boolean restart = false;
+
+        static Options parse(String[] args, int from) {
+            Options options = new Options();
+            for (int i = from; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--min-batch":
+                        options.minBatch = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-batch":
+                        options.maxBatch = Integer.parseInt(args[++i]);
+                        break;
+                    case "--target-batch-ms":
+                        options.targetBatchMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--window-mb":
+                        options.windowBytes = Integer.parseInt(args[++i]) << 20;
+                        break;
+                    case "--truncate":
+                        options.truncate = true;
+                        break;
+                    case "--restart":
+                        options.restart = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (options.minBatch < 1 || options.maxBatch < options.minBatch) {
+                throw new IllegalArgumentException("Need 1 <= --min-batch <= --max-batch");
+            }
+            return options;
+        }
+    }
+
+    /**
+     * What a load did.
+     */
+    static final class Result {
+        final long rowsLoaded;
+        final long rowsThisRun;
+        final long resumedAt;
+        final long elapsedNanos;
+
+        Result(long rowsLoaded, long rowsThisRun, long resumedAt, long elapsedNanos) {
+            this.rowsLoaded = rowsLoaded;
+            this.rowsThisRun = rowsThisRun;
+            this.resumedAt = resumedAt;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return "loaded " + rowsThisRun + " rows in " + String.format("%.1f", seconds) + " s ("
+                    + Math.round(rowsThisRun / Math.max(seconds, 1e-9)) + " rows/s)"
+                    + (resumedAt > 0 ? ", resumed at byte " + resumedAt : "") + ", " + rowsLoaded + " rows in total";
+        }
+    }
+
+    /**
+     * Loads {@code file}, resuming a load of the same file that stopped unless the options ask to
+     * restart.
+     *
+     * @throws IllegalStateException if the file changed size since the stopped load
+     * @throws IllegalArgumentException if a line is malformed
+     */
+    Result load(Path file) throws IOException, SQLException {
+        long start = System.nanoTime();
+        String source = file.toAbsolutePath().normalize().toString();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             PooledConnection pooled = pool.borrow()) {
+            long size = channel.size();
+            Connection conn = pooled.getConnection();
+            long[] checkpoint = checkpoint(pooled, source, size);
+            long offset = checkpoint[0];
+            long rows = checkpoint[1];
+            if (offset == 0 && options.truncate) {
+                try (Statement statement = conn.createStatement()) {
+                    statement.executeUpdate("DELETE FROM Flights");
+                }
+            }
+
+            Batches batches = new Batches(pooled, source, rows);
+            conn.setAutoCommit(false);
+            try {
+                Parser parser = new Parser();
+                while (offset < size) {
+                    long length = Math.min(options.windowBytes, size - offset);
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    boolean last = offset + length == size;
+                    int consumed = parser.parseWindow(window, offset == 0, last, batches, offset);
+                    if (consumed == 0) {
+                        throw new IllegalArgumentException("A line at byte " + offset + " is longer than the "
+                                + options.windowBytes + " byte window");
+                    }
+                    offset += consumed;
+                }
+                batches.flush(offset);
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return new Result(batches.rows, batches.rows - checkpoint[1], checkpoint[0], System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the offset to start at and the rows loaded before it
+     */
+    private long[] checkpoint(PooledConnection pooled, String source, long size) throws SQLException {
+        PreparedStatement read = pooled.prepareStatement(READ_CHECKPOINT);
+        read.setString(1, source);
+        try (ResultSet rs = read.executeQuery()) {
+            if (rs.next()) {
+                long fileSize = rs.getLong(1);
+                if (!options.restart) {
+                    if (fileSize != size) {
+                        throw new IllegalStateException(source + " is " + size + " bytes but was " + fileSize
+                                + " when its load stopped; load it with --restart");
+                    }
+                    return new long[] {rs.getLong(2), rs.getLong(3)};
+                }
+                PreparedStatement reset = pooled.prepareStatement(RESET_CHECKPOINT);
+                reset.setLong(1, size);
+                reset.setString(2, source);
+                reset.executeUpdate();
+                return new long[] {0, 0};
+            }
+        }
+        PreparedStatement create = pooled.prepareStatement(CREATE_CHECKPOINT);
+        create.setString(1, source);
+        create.setLong(2, size);
+        create.executeUpdate();
+        return new long[] {0, 0};
+    }
+
+    /**
+     * Collects rows into batches and commits each batch with its checkpoint.
+     */
+    private final class Batches {
+        private final PooledConnection pooled;
+        private final PreparedStatement insert;
+        private final String source;
+        private int batchSize = options.minBatch;
+        private int pending = 0;
+        private long rows;
+        private long lastReport = System.nanoTime();
+        private long rowsAtLastReport;
+
+        Batches(PooledConnection pooled, String source, long rows) throws SQLException {
+            this.pooled = pooled;
+            this.insert = pooled.prepareStatement(INSERT);
+            this.source = source;
+            this.rows = rows;
+            this.rowsAtLastReport = rows;
+        }
+
+        /**
+         * Adds the row held by {@code numbers} and {@code texts}, which ends before {@code next}.
+         */
+        void add(long[] numbers, String[] texts, long next) throws SQLException {
+            for (int c = 0; c < COLUMNS; c++) {
+                if (c >= FIRST_TEXT_COLUMN && c <= LAST_TEXT_COLUMN) {
+                    insert.setString(c + 1, texts[c]);
+                } else if (numbers[c] == NULL) {
+                    insert.setNull(c + 1, Types.INTEGER);
+                } else {
+                    insert.setInt(c + 1, (int) numbers[c]);
+                }
+            }
+            insert.addBatch();
+            if (++pending >= batchSize) {
+                flush(next);
+            }
+        }
+
+        /**
+         * Commits the pending rows with {@code next} as the offset to resume at.
+         */
+        void flush(long next) throws SQLException {
+            if (pending == 0) {
+                return;
+            }
+            long start = System.nanoTime();
+            insert.executeBatch();
+            rows += pending;
+            PreparedStatement save = pooled.prepareStatement(SAVE_CHECKPOINT);
+            save.setLong(1, next);
+            save.setLong(2, rows);
+            save.setString(3, source);
+            save.executeUpdate();
+            pooled.getConnection().commit();
+            adapt(pending, System.nanoTime() - start);
+            pending = 0;
+            report();
+        }
+
+        /**
+         * Doubles the batch size after a full batch that took well under the target, halves it
+         * after one that took well over.
+         */
+        private void adapt(int size, long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            if (size == batchSize && millis < options.targetBatchMillis / 2) {
+                batchSize = Math.min(options.maxBatch, 2 * batchSize);
+            } else if (millis > 2 * options.targetBatchMillis) {
+                batchSize = Math.max(options.minBatch, batchSize / 2);
+            }
+        }
+
+        private void report() {
+            long now = System.nanoTime();
+            if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+                double seconds = (now - lastReport) / 1e9;
+                System.out.println(rows + " rows, " + Math.round((rows - rowsAtLastReport) / seconds)
+                        + " rows/s, batch size " + batchSize);
+                lastReport = now;
+                rowsAtLastReport = rows;
+            }
+        }
+    }
+
+    /**
+     * Splits mapped bytes into rows without creating a String per field.
+     */
+    private static final class Parser {
+        private final long[] numbers = new long[COLUMNS];
+        private final String[] texts = new String[COLUMNS];
+        private final TextTable table = new TextTable();
+
+        /**
+         * Hands every complete line of {@code window} to {@code batches}. The last line counts as
+         * complete without a line break only when the window ends the file.
+         *
+         * @param atFileStart whether the window starts the file, which may start with a header
+         * @param offset      position of the window in the file
+         *
+         * @return the number of bytes of complete lines
+         */
+        int parseWindow(MappedByteBuffer window, boolean atFileStart, boolean atFileEnd, Batches batches, long offset)
+                throws SQLException {
+            int limit = window.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && window.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                if (lineEnd == limit && !atFileEnd) {
+                    break;
+                }
+                int next = Math.min(lineEnd + 1, limit);
+                int end = lineEnd > lineStart && window.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                boolean header = atFileStart && lineStart == 0 && !startsWithNumber(window, lineStart, end);
+                if (end > lineStart && !header) {
+                    parseLine(window, lineStart, end, offset);
+                    batches.add(numbers, texts, offset + next);
+                }
+                lineStart = next;
+            }
+            return lineStart;
+        }
+
+        private void parseLine(MappedByteBuffer buf, int start, int end, long offset) {
+            int pos = start;
+            for (int c = 0; c < COLUMNS; c++) {
+                if (c > 0) {
+                    if (pos >= end || buf.get(pos) != ',') {
+                        throw malformed(offset + start, "expected " + COLUMNS + " columns");
+                    }
+                    pos++;
+                }
+                int fieldEnd;
+                if (c >= FIRST_TEXT_COLUMN && c <= LAST_TEXT_COLUMN) {
+                    int from = pos;
+                    if (pos < end && buf.get(pos) == '"') {
+                        from = pos + 1;
+                        fieldEnd = from;
+                        while (fieldEnd < end && buf.get(fieldEnd) != '"') {
+                            fieldEnd++;
+                        }
+                        if (fieldEnd == end) {
+                            throw malformed(offset + start, "unterminated quote in column " + (c + 1));
+                        }
+                        texts[c] = table.get(buf, from, fieldEnd);
+                        pos = fieldEnd + 1;
+                        continue;
+                    }
+                    fieldEnd = indexOfComma(buf, pos, end);
+                    texts[c] = table.get(buf, from, fieldEnd);
+                } else {
+                    fieldEnd = indexOfComma(buf, pos, end);
+                    numbers[c] = parseNumber(buf, pos, fieldEnd, offset + start, c);
+                }
+                pos = fieldEnd;
+            }
+            if (pos != end) {
+                throw malformed(offset + start, "expected " + COLUMNS + " columns");
+            }
+        }
+
+        private static int indexOfComma(MappedByteBuffer buf, int from, int end) {
+            int i = from;
+            while (i < end && buf.get(i) != ',') {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * Parses an int, ignoring a fractional part of zeros such as in {@code 12.00}.
+         */
+        private static long parseNumber(MappedByteBuffer buf, int from, int to, long lineOffset, int column) {
+            if (from == to) {
+                return NULL;
+            }
+            int i = from;
+            boolean negative = buf.get(i) == '-';
+            if (negative && ++i == to) {
+                throw malformed(lineOffset, "not a number in column " + (column + 1));
+            }
+            long value = 0;
+            for (; i < to; i++) {
+                byte b = buf.get(i);
+                if (b == '.') {
+                    for (i++; i < to; i++) {
+                        if (buf.get(i) != '0') {
+                            throw malformed(lineOffset, "not an int in column " + (column + 1));
+                        }
+                    }
+                    break;
+                }
+                if (b < '0' || b > '9') {
+                    throw malformed(lineOffset, "not a number in column " + (column + 1));
+                }
+                value = value * 10 + (b - '0');
+                if (value > Integer.MAX_VALUE + 1L) {
+                    throw malformed(lineOffset, "number out of range in column " + (column + 1));
+                }
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw malformed(lineOffset, "number out of range in column " + (column + 1));
+            }
+            return value;
+        }
+
+        private static boolean startsWithNumber(MappedByteBuffer buf, int from, int to) {
+            if (from == to) {
+                return true;
+            }
+            byte b = buf.get(from);
+            return b == '-' || (b >= '0' && b <= '9');
+        }
+
+        private static IllegalArgumentException malformed(long lineOffset, String problem) {
+            return new IllegalArgumentException("Line at byte " + lineOffset + ": " + problem);
+        }
+    }
+
+    /**
+     * Strings for byte ranges, so a repeated value is decoded once. An open-addressing table of at
+     * most {@code CAPACITY / 2} values; once it is full, new values are decoded every time.
+     */
+    private static final class TextTable {
+        private static final int CAPACITY = 1 << 17;
+
+        private final byte[][] keys = new byte[CAPACITY][];
+        private final String[] values = new String[CAPACITY];
+        private int size = 0;
+
+        String get(MappedByteBuffer buf, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + buf.get(i);
+            }
+            int slot = (hash ^ (hash >>> 16)) & (CAPACITY - 1);
+            while (keys[slot] != null) {
+                if (equals(keys[slot], buf, from, to)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & (CAPACITY - 1);
+            }
+            byte[] key = new byte[to - from];
+            for (int i = from; i < to; i++) {
+                key[i - from] = buf.get(i);
+            }
+            String value = new String(key, StandardCharsets.UTF_8);
+            if (size < CAPACITY / 2) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+            }
+            return value;
+        }
+
+        private static boolean equals(byte[] key, MappedByteBuffer buf, int from, int to) {
+            if (key.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buf.get(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Loads a CSV file of flights into the database in dbconn.properties.
+     *
+     * @param args the file, then the options: {@code --truncate} empties Flights before a load
+     *             that does not resume, {@code --restart} ignores a stopped load of the file,
+     *             {@code --min-batch}, {@code --max-batch} and {@code --target-batch-ms} bound
+     *             the batches and {@code --window-mb} sizes the mapped window
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1) {
+            System.out.println("Usage: FlightLoader <flights.csv> [--truncate] [--restart] [--min-batch n] "
+                    + "[--max-batch n] [--target-batch-ms n] [--window-mb n]");
+            return;
+        }
+        try (ConnectionPool pool = Util.openPoolFromDbConn()) {
+            System.out.println(new FlightLoader(pool, Options.parse(args, 1)).load(Paths.get(args[0])));
+        }
+    }
+}
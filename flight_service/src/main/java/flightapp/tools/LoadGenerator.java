@@ -0,0 +1,419 @@
+package flightapp.tools;
+
+import flightapp.FlightService;
+import flightapp.Query;
+import flightapp.Util;
+import flightapp.db.ConnectionPool;
+import flightapp.db.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the scenarios of the {@code cases} directory with many concurrent virtual users and
+ * reports latency percentiles, throughput, failures and deadlocks per command.
+ *
+ * Every virtual user repeatedly picks a case, using the weight of the case's directory in the mix,
+ * then runs the commands of one user of that case in a new session. Between commands it waits
+ * for a random think time with the configured mean. Usernames are made unique per run of a
+ * script, so scripts that create a user can be replayed. Virtual users still contend for the same
+ * flights, seats and reservation IDs. Pass {@code --shared-users} to keep the usernames of the
+ * case, which makes virtual users contend for the same accounts as well.
+ *
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=flightapp.tools.LoadGenerator \
+ *     -Dexec.args="--users 200 --duration 60 --ramp-up 10 --think-ms 50 --mix search=5,book=3,pay=1,cancel=1"
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final long[] NO_SAMPLES = new long[0];
+
+    private final ConnectionPool pool;
+    private final Options options;
+    private final Map<String, List<CaseFile>> casesByCategory;
+    private final String[] categories;
+    private final int[] cumulativeWeights;
+
+    LoadGenerator(ConnectionPool pool, Options options, List<CaseFile> cases) {
+        this.pool = pool;
+        this.options = options;
+        this.casesByCategory = new TreeMap<>();
+        for (CaseFile caseFile : cases) {
+            casesByCategory.computeIfAbsent(category(caseFile), c -> new ArrayList<>()).add(caseFile);
+        }
+
+        Map<String, Integer> mix = options.mix.isEmpty() ? equalMix(casesByCategory.keySet()) : options.mix;
+        categories = new String[mix.size()];
+        cumulativeWeights = new int[mix.size()];
+        int total = 0;
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            if (!casesByCategory.containsKey(entry.getKey())) {
+                throw new IllegalArgumentException("No cases for '" + entry.getKey() + "', found "
+                        + casesByCategory.keySet());
+            }
+            total += entry.getValue();
+            categories[i] = entry.getKey();
+            cumulativeWeights[i] = total;
+            i++;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix has no weight: " + mix);
+        }
+    }
+
+    /**
+     * The directory a case is in, e.g. {@code book} for {@code cases/transaction/book/x.txt}.
+     */
+    private static String category(CaseFile caseFile) {
+        Path parent = caseFile.path().getParent();
+        return parent == null ? "" : parent.getFileName().toString();
+    }
+
+    private static Map<String, Integer> equalMix(Iterable<String> categories) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String category : categories) {
+            mix.put(category, 1);
+        }
+        return mix;
+    }
+
+    /**
+     * Runs the virtual users for the configured duration and collects what they measured.
+     */
+    Report run() throws InterruptedException {
+        Map<String, long[]> before = transactionCounters();
+        VirtualUser[] users = new VirtualUser[options.users];
+        Thread[] threads = new Thread[options.users];
+        CountDownLatch start = new CountDownLatch(1);
+        long startedAt = System.nanoTime();
+        long endsAt = startedAt + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        for (int v = 0; v < options.users; v++) {
+            long delay = options.users == 1 ? 0 : TimeUnit.SECONDS.toNanos(options.rampUpSeconds) * v / options.users;
+            users[v] = new VirtualUser(v, startedAt + delay, endsAt, start);
+            threads[v] = new Thread(users[v], "virtual-user-" + v);
+            threads[v].setDaemon(true);
+            threads[v].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - startedAt;
+
+        Report report = new Report(elapsed, before, transactionCounters());
+        for (VirtualUser user : users) {
+            report.merge(user.recorder);
+        }
+        return report;
+    }
+
+    /**
+     * @return attempts, retries and deadlocks so far of every transactional operation
+     */
+    private static Map<String, long[]> transactionCounters() {
+        Map<String, long[]> counters = new TreeMap<>();
+        for (Map.Entry<String, TransactionTemplate.OperationStats> entry : Query.transactionStats().entrySet()) {
+            TransactionTemplate.OperationStats stats = entry.getValue();
+            counters.put(entry.getKey(), new long[] {stats.attempts.sum(), stats.retries.sum(), stats.deadlocks.sum()});
+        }
+        return counters;
+    }
+
+    private List<String> pickScript(Random random) {
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int c = 0;
+        while (cumulativeWeights[c] <= pick) {
+            c++;
+        }
+        List<CaseFile> cases = casesByCategory.get(categories[c]);
+        List<List<String>> users = cases.get(random.nextInt(cases.size())).users();
+        return users.get(random.nextInt(users.size()));
+    }
+
+    /**
+     * Gives the usernames of a script a suffix unique to this run of the script.
+     */
+    private static String rename(String command, String suffix) {
+        String trimmed = command.trim();
+        if (trimmed.startsWith("create ") || trimmed.startsWith("login ")) {
+            String[] parts = trimmed.split("\\s+", 3);
+            if (parts.length == 3) {
+                return parts[0] + " " + parts[1] + suffix + " " + parts[2];
+            }
+        }
+        return command;
+    }
+
+    private class VirtualUser implements Runnable {
+        private final int id;
+        private final long startAt;
+        private final long endAt;
+        private final CountDownLatch start;
+        final Recorder recorder = new Recorder();
+
+        VirtualUser(int id, long startAt, long endAt, CountDownLatch start) {
+            this.id = id;
+            this.startAt = startAt;
+            this.endAt = endAt;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            Random random = ThreadLocalRandom.current();
+            try {
+                start.await();
+                sleepUntil(startAt);
+                for (int iteration = 0; System.nanoTime() < endAt; iteration++) {
+                    String suffix = options.sharedUsers ? "" : "_" + Integer.toString(id, 36) + "_" + Integer.toString(iteration, 36);
+                    Query query = new Query(pool);
+                    try {
+                        for (String command : pickScript(random)) {
+                            if (System.nanoTime() >= endAt) {
+                                break;
+                            }
+                            execute(query, rename(command, suffix));
+                            think(random);
+                        }
+                    } finally {
+                        query.closeConnection();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void execute(Query query, String command) {
+            String name = commandName(command);
+            long start = System.nanoTime();
+            boolean failed;
+            try {
+                failed = isFailure(FlightService.execute(query, command));
+            } catch (RuntimeException e) {
+                failed = true;
+            }
+            recorder.record(name, System.nanoTime() - start, failed);
+        }
+
+        private void think(Random random) throws InterruptedException {
+            if (options.thinkMillis > 0) {
+                // exponentially distributed, like the gaps between independent requests
+                double millis = -options.thinkMillis * Math.log(1 - random.nextDouble());
+                TimeUnit.MICROSECONDS.sleep((long) (millis * 1000));
+            }
+        }
+
+        private void sleepUntil(long deadline) throws InterruptedException {
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private static String commandName(String command) {
+        String trimmed = command.trim();
+        int space = trimmed.indexOf(' ');
+        return space < 0 ? trimmed : trimmed.substring(0, space);
+    }
+
+    /**
+     * A response counts as failed if it reports an error or a refused operation.
+     */
+    static boolean isFailure(String response) {
+        String lower = response.toLowerCase();
+        return lower.startsWith("error") || lower.startsWith("cannot") || lower.contains("fail")
+                || lower.contains("not found") || lower.contains("not enough");
+    }
+
+    /**
+     * Latencies and failures of one virtual user, so recording needs no synchronization.
+     */
+    private static class Recorder {
+        final Map<String, Samples> byCommand = new TreeMap<>();
+
+        void record(String command, long nanos, boolean failed) {
+            Samples samples = byCommand.computeIfAbsent(command, c -> new Samples());
+            samples.add(nanos);
+            if (failed) {
+                samples.failures++;
+            }
+        }
+    }
+
+    private static class Samples {
+        long[] nanos = NO_SAMPLES;
+        int count = 0;
+        long failures = 0;
+
+        void add(long value) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, Math.max(64, 2 * count));
+            }
+            nanos[count++] = value;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.nanos[i]);
+            }
+            failures += other.failures;
+        }
+
+        /**
+         * @return the {@code quantile} of the samples, which must be sorted
+         */
+        long quantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * count) - 1;
+            return nanos[Math.max(0, Math.min(count - 1, rank))];
+        }
+    }
+
+    /**
+     * What a run measured.
+     */
+    static class Report {
+        private final long elapsedNanos;
+        private final Map<String, long[]> before;
+        private final Map<String, long[]> after;
+        private final Map<String, Samples> byCommand = new TreeMap<>();
+
+        Report(long elapsedNanos, Map<String, long[]> before, Map<String, long[]> after) {
+            this.elapsedNanos = elapsedNanos;
+            this.before = before;
+            this.after = after;
+        }
+
+        void merge(Recorder recorder) {
+            for (Map.Entry<String, Samples> entry : recorder.byCommand.entrySet()) {
+                byCommand.computeIfAbsent(entry.getKey(), c -> new Samples()).addAll(entry.getValue());
+            }
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-14s %9s %10s %9s %10s %10s %10s %10s%n",
+                    "command", "count", "ops/s", "failed %", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+            long total = 0;
+            long failures = 0;
+            for (Map.Entry<String, Samples> entry : byCommand.entrySet()) {
+                Samples samples = entry.getValue();
+                Arrays.sort(samples.nanos, 0, samples.count);
+                total += samples.count;
+                failures += samples.failures;
+                sb.append(String.format("%-14s %9d %10.1f %9.2f %10.3f %10.3f %10.3f %10.3f%n",
+                        entry.getKey(), samples.count, samples.count / seconds,
+                        100.0 * samples.failures / Math.max(1, samples.count),
+                        samples.quantile(0.50) / 1e6, samples.quantile(0.99) / 1e6,
+                        samples.quantile(0.999) / 1e6, samples.quantile(1.0) / 1e6));
+            }
+            sb.append(String.format("%-14s %9d %10.1f %9.2f%n", "total", total, total / seconds,
+                    100.0 * failures / Math.max(1, total)));
+
+            sb.append(String.format("%n%-14s %9s %9s %9s %11s%n", "transaction", "attempts", "retries", "deadlocks",
+                    "deadlock %"));
+            for (Map.Entry<String, long[]> entry : after.entrySet()) {
+                long[] start = before.getOrDefault(entry.getKey(), new long[3]);
+                long attempts = entry.getValue()[0] - start[0];
+                long retries = entry.getValue()[1] - start[1];
+                long deadlocks = entry.getValue()[2] - start[2];
+                sb.append(String.format("%-14s %9d %9d %9d %11.3f%n", entry.getKey(), attempts, retries, deadlocks,
+                        100.0 * deadlocks / Math.max(1, attempts)));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Command line options.
+     */
+    static class Options {
+        Path cases = Paths.get("cases", "transaction");
+        int users = 10;
+        int durationSeconds = 30;
+        int rampUpSeconds = 0;
+        double thinkMillis = 0;
+        boolean sharedUsers = false;
+        Map<String, Integer> mix = new LinkedHashMap<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--shared-users")) {
+                    options.sharedUsers = true;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--cases":
+                        options.cases = Paths.get(value);
+                        break;
+                    case "--users":
+                        options.users = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        options.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--ramp-up":
+                        options.rampUpSeconds = Integer.parseInt(value);
+                        break;
+                    case "--think-ms":
+                        options.thinkMillis = Double.parseDouble(value);
+                        break;
+                    case "--mix":
+                        for (String part : value.split(",")) {
+                            String[] kv = part.split("=", 2);
+                            options.mix.put(kv[0].trim(), kv.length == 2 ? Integer.parseInt(kv[1].trim()) : 1);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (options.users < 1 || options.durationSeconds < 1) {
+                throw new IllegalArgumentException("--users and --duration must be positive");
+            }
+            return options;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options = Options.parse(args);
+        List<CaseFile> cases = CaseFile.parseAll(options.cases);
+        try (ConnectionPool pool = Util.openPoolFromDbConn()) {
+            LoadGenerator generator = new LoadGenerator(pool, options, cases);
+            System.out.println("Running " + options.users + " virtual users for " + options.durationSeconds
+                    + " s on " + cases.size() + " cases from " + options.cases);
+            Report report = generator.run();
+            System.out.print(report);
+            System.out.println();
+            System.out.println("pool: " + pool.stats());
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package flightapp.tools;
+
+import flightapp.Util;
+import flightapp.auth.Authenticator;
+import flightapp.db.ConnectionPool;
+import flightapp.db.PooledConnection;
+import flightapp.db.SqlErrors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates users in bulk, the way {@link flightapp.Query#createUser(String, String, int)} creates
+ * one.
+ *
+ * Hashing a password costs far more than inserting it, so passwords are hashed on every core
+ * while the rows hashed so far are inserted in JDBC batches, a transaction per batch. A batch
+ * holding a username that is already taken is rolled back and inserted row by row, and only the
+ * rows whose username is taken are rejected.
+ *
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=flightapp.tools.UserImporter -Dexec.args="users.csv"
+ * </pre>
+ *
+ * reads lines of {@code username,password,balance}, skipping lines starting with {@code #}.
+ */
+public class UserImporter implements AutoCloseable {
+
+    private static final String INSERT = "INSERT INTO Users(username, password, balance) VALUES(?, ?, ?)";
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final ExecutorService hashers;
+
+    /**
+     * @param batchSize   rows sent to the database at once
+     * @param hashThreads threads hashing passwords
+     */
+    public UserImporter(ConnectionPool pool, int batchSize, int hashThreads) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.hashers = Executors.newFixedThreadPool(hashThreads, r -> {
+            Thread thread = new Thread(r, "import-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A user to create.
+     */
+    public static final class NewUser {
+        final String username;
+        final String password;
+        final int balance;
+
+        public NewUser(String username, String password, int balance) {
+            this.username = username;
+            this.password = password;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * What an import did.
+     */
+    public static final class Result {
+        public final long imported;
+        public final long rejected;
+        public final long elapsedNanos;
+
+        Result(long imported, long rejected, long elapsedNanos) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return "imported: " + imported + " rejected: " + rejected + " in " + String.format("%.1f", seconds)
+                    + " s (" + Math.round(imported / Math.max(seconds, 1e-9)) + " users/s)";
+        }
+    }
+
+    /**
+     * Creates {@code users} in order. Users with a negative balance or a username that is taken
+     * are rejected, the others are committed a batch at a time.
+     *
+     * @throws SQLException if the database fails for another reason; the batches committed before
+     *                      stay committed
+     */
+    public Result importUsers(Iterator<NewUser> users) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        long imported = 0;
+        long rejected = 0;
+        // hashing runs up to two batches ahead of the inserts
+        ArrayDeque<Future<Row>> hashing = new ArrayDeque<>();
+        List<Row> batch = new ArrayList<>(batchSize);
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                while (users.hasNext() || !hashing.isEmpty()) {
+                    while (users.hasNext() && hashing.size() < 2 * batchSize) {
+                        NewUser user = users.next();
+                        if (user.balance < 0) {
+                            rejected++;
+                            continue;
+                        }
+                        hashing.add(hashers.submit(
+                                () -> new Row(user.username, Authenticator.saltedHash(user.password), user.balance)));
+                    }
+                    if (!hashing.isEmpty()) {
+                        batch.add(await(hashing.poll()));
+                    }
+                    if (batch.size() == batchSize || (hashing.isEmpty() && !batch.isEmpty())) {
+                        int inserted = insert(pooled, batch);
+                        imported += inserted;
+                        rejected += batch.size() - inserted;
+                        batch.clear();
+                    }
+                }
+            } finally {
+                for (Future<Row> pending : hashing) {
+                    pending.cancel(true);
+                }
+                conn.setAutoCommit(true);
+            }
+        }
+        return new Result(imported, rejected, System.nanoTime() - start);
+    }
+
+    /**
+     * Inserts and commits {@code rows}.
+     *
+     * @return the number of rows inserted
+     */
+    private int insert(PooledConnection pooled, List<Row> rows) throws SQLException {
+        Connection conn = pooled.getConnection();
+        PreparedStatement ps = pooled.prepareStatement(INSERT);
+        try {
+            for (Row row : rows) {
+                bind(ps, row);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            conn.commit();
+            return rows.size();
+        } catch (SQLException e) {
+            conn.rollback();
+            ps.clearBatch();
+            if (!SqlErrors.isDuplicateKey(e)) {
+                throw e;
+            }
+        }
+
+        // some usernames are taken, find out which
+        int inserted = 0;
+        for (Row row : rows) {
+            bind(ps, row);
+            try {
+                ps.executeUpdate();
+                conn.commit();
+                inserted++;
+            } catch (SQLException e) {
+                conn.rollback();
+                if (!SqlErrors.isDuplicateKey(e)) {
+                    throw e;
+                }
+            }
+        }
+        return inserted;
+    }
+
+    private static void bind(PreparedStatement ps, Row row) throws SQLException {
+        ps.setString(1, row.username);
+        ps.setBytes(2, row.password);
+        ps.setInt(3, row.balance);
+    }
+
+    private static Row await(Future<Row> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not hash a password", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the hashing threads.
+     */
+    @Override
+    public void close() {
+        hashers.shutdownNow();
+    }
+
+    /**
+     * A user as it is stored.
+     */
+    private static final class Row {
+        final String username;
+        final byte[] password;
+        final int balance;
+
+        Row(String username, byte[] password, int balance) {
+            this.username = username;
+            this.password = password;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * @return the users of the {@code username,password,balance} lines read by {@code reader}
+     */
+    static Iterator<NewUser> readCsv(BufferedReader reader) {
+        return new Iterator<NewUser>() {
+            private NewUser next;
+            private int lineNumber = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                }
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lineNumber++;
+                        if (line.isEmpty() || line.startsWith("#")) {
+                            continue;
+                        }
+                        String[] fields = line.split(",", -1);
+                        if (fields.length != 3) {
+                            throw new IllegalArgumentException("Line " + lineNumber + ": expected username,password,balance");
+                        }
+                        next = new NewUser(fields[0].trim(), fields[1], Integer.parseInt(fields[2].trim()));
+                        return true;
+                    }
+                    return false;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public NewUser next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                NewUser user = next;
+                next = null;
+                return user;
+            }
+        };
+    }
+
+    /**
+     * Imports the users of a CSV file into the database in dbconn.properties.
+     *
+     * @param args the file, then optionally the batch size and the number of hashing threads
+     */
+    public static void main(String[] args) throws IOException, SQLException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: UserImporter <users.csv> [batch size] [hash threads]");
+            return;
+        }
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        try (ConnectionPool pool = Util.openPoolFromDbConn();
+             UserImporter importer = new UserImporter(pool, batchSize, threads);
+             BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            System.out.println(importer.importUsers(readCsv(reader)));
+        }
+    }
+}
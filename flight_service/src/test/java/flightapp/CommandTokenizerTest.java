@@ -0,0 +1,160 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link CommandTokenizer}, on strings and on their UTF-8 bytes, against the regular
+ * expression commands were split with before, and against {@link Integer#parseInt(String)}, on
+ * random input.
+ */
+public class CommandTokenizerTest {
+
+    private static final Pattern TOKENS = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+    // chars the random commands are made of: quotes, every \s whitespace, and a non-\s space
+    private static final char[] ALPHABET = {'a', 'B', '1', '-', '+', '"', '"', ' ', ' ', '\t', '\n', '\u000B', '\f',
+            '\r', '\u00A0', 'é'};
+
+    @Test
+    public void splitsLikeTheRegularExpression() {
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            String command = randomString(random, ALPHABET, random.nextInt(i < 1000 ? 12 : 400));
+            assertEquals(command, regexTokens(command), tokens(tokenizer, command));
+            assertEquals(command, regexTokens(command), byteTokens(tokenizer, command));
+        }
+    }
+
+    @Test
+    public void keepsSpacesInQuotedTokens() {
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        assertEquals(6, tokenizer.tokenize("search \"Seattle WA\" \"Boston MA\" 1 5-11 3"));
+        assertEquals("Seattle WA", tokenizer.string(1));
+        assertTrue(tokenizer.is(2, "Boston MA"));
+        assertFalse(tokenizer.is(2, "Boston"));
+        assertEquals(0, tokenizer.tokenize(" \t "));
+    }
+
+    @Test
+    public void parsesIntsLikeParseInt() {
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        List<String> numbers = new ArrayList<>();
+        for (String number : new String[]{"0", "-0", "+7", "-", "+", "", "2147483647", "2147483648", "-2147483648",
+                "-2147483649", "99999999999", "00012", "1a", "12-"}) {
+            numbers.add(number);
+        }
+        Random random = new Random(2);
+        char[] digits = {'0', '1', '2', '4', '7', '9', '-', '+', 'x'};
+        for (int i = 0; i < 100000; i++) {
+            numbers.add(randomString(random, digits, 1 + random.nextInt(12)));
+        }
+        for (String number : numbers) {
+            tokenizer.tokenize("\"" + number + "\"");
+            Integer expected;
+            try {
+                expected = Integer.parseInt(number);
+            } catch (NumberFormatException e) {
+                expected = null;
+            }
+            try {
+                int parsed = tokenizer.parseInt(0);
+                assertEquals(number, expected, Integer.valueOf(parsed));
+            } catch (NumberFormatException e) {
+                if (expected != null) {
+                    fail(number + " is " + expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parsesRanges() {
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        tokenizer.tokenize("5-11 8 -3--1 4-");
+        assertEquals(5, tokenizer.parseRangeFirst(0));
+        assertEquals(11, tokenizer.parseRangeLast(0));
+        assertEquals(8, tokenizer.parseRangeFirst(1));
+        assertEquals(8, tokenizer.parseRangeLast(1));
+        assertEquals(-3, tokenizer.parseRangeFirst(2));
+        assertEquals(-1, tokenizer.parseRangeLast(2));
+        assertEquals(4, tokenizer.parseRangeFirst(3));
+        try {
+            tokenizer.parseRangeLast(3);
+            fail("4- has no last day");
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    @Test
+    public void findsTheCommandOfTheFirstToken() {
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        for (FlightService.Command command : FlightService.Command.values()) {
+            tokenizer.tokenize(command.name + " 1");
+            assertEquals(command, FlightService.Command.of(tokenizer));
+            tokenizer.tokenize("\"" + command.name.toUpperCase() + "\"");
+            assertNull(FlightService.Command.of(tokenizer));
+        }
+        for (String other : new String[]{"\"\"", "x", "pax", "bool", "quiz", "logon", "seance", "crease", "citrus",
+                "cancer", "candle", "reservation", "reservationss"}) {
+            tokenizer.tokenize(other);
+            assertNull(other, FlightService.Command.of(tokenizer));
+        }
+    }
+
+    private static String randomString(Random random, char[] alphabet, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return new String(chars);
+    }
+
+    private static List<String> regexTokens(String command) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKENS.matcher(command);
+        while (matcher.find()) {
+            tokens.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the tokens of the UTF-8 bytes of {@code command}, given after a few bytes of junk
+     */
+    private static List<String> byteTokens(CommandTokenizer tokenizer, String command) {
+        byte[] utf8 = command.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[utf8.length + 3];
+        System.arraycopy(utf8, 0, bytes, 3, utf8.length);
+        List<String> tokens = new ArrayList<>();
+        int count = tokenizer.tokenize(bytes, 3, utf8.length);
+        for (int i = 0; i < count; i++) {
+            tokens.add(tokenizer.string(i));
+        }
+        return tokens;
+    }
+
+    private static List<String> tokens(CommandTokenizer tokenizer, String command) {
+        List<String> tokens = new ArrayList<>();
+        int count = tokenizer.tokenize(command);
+        assertEquals(count, tokenizer.count());
+        for (int i = 0; i < count; i++) {
+            tokens.add(tokenizer.string(i));
+            assertTrue(tokenizer.is(i, tokens.get(i)));
+        }
+        return tokens;
+    }
+}
@@ -12,6 +12,7 @@ public class TestUtils {
   private static final Set<String> DEFAULT_TABLES;
   private static final String BASE_SCHEMA = "dbo";
   private static final String[] TYPES = new String[]{"TABLE"};
+  private static final String[] SEQUENCES = new String[]{"ReservationIds"};
 
   static {
     Set<String> temp = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
@@ -45,6 +46,11 @@ public class TestUtils {
         String dropTable = String.format("DROP TABLE %s;", table);
         statement.execute(dropTable);
       }
+
+      for (String sequence : SEQUENCES) {
+        String dropSequence = String.format("DROP SEQUENCE IF EXISTS %s;", sequence);
+        statement.execute(dropSequence);
+      }
     }
   }
 
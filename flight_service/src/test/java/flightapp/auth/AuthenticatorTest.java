@@ -0,0 +1,110 @@
+package flightapp.auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link Authenticator} accepts only the password a hash was made of, and remembers
+ * successful logins only for the password used, for as long as the time-to-live, and for as many
+ * users as it may.
+ */
+public class AuthenticatorTest {
+
+    private static final byte[] SECRET = Authenticator.saltedHash("secret");
+
+    @Test
+    public void acceptsOnlyThePasswordOfTheHash() throws InterruptedException {
+        Authenticator authenticator = new Authenticator(1, 4, 10, 0);
+        assertTrue(authenticator.verify("user", "secret", SECRET));
+        assertFalse(authenticator.verify("user", "Secret", SECRET));
+        assertFalse(authenticator.verify("user", "", SECRET));
+        assertFalse(authenticator.verify("user", "secret", new byte[4]));
+        assertFalse(authenticator.verify("user", "secret", null));
+
+        // salted: the same password hashes differently every time
+        byte[] again = authenticator.hash("secret");
+        assertFalse(Arrays.equals(SECRET, again));
+        assertTrue(authenticator.verify("user", "secret", again));
+
+        byte[] stored = authenticator.hash("päss wörd");
+        assertTrue(authenticator.verify("user", "päss wörd", stored));
+        assertFalse(authenticator.verify("user", "pass word", stored));
+    }
+
+    @Test
+    public void remembersALoginUntilItsTimeToLive() throws InterruptedException {
+        Authenticator authenticator = new Authenticator(1, 4, 10, 300);
+        assertFalse(authenticator.isCached("user", "secret"));
+        assertTrue(authenticator.verify("user", "secret", SECRET));
+        assertTrue(authenticator.isCached("user", "secret"));
+        assertFalse(authenticator.isCached("user", "wrong"));
+        assertFalse(authenticator.isCached("other", "secret"));
+
+        Thread.sleep(400);
+        assertFalse(authenticator.isCached("user", "secret"));
+    }
+
+    @Test
+    public void remembersNoFailedLogin() throws InterruptedException {
+        Authenticator authenticator = new Authenticator(1, 4, 10, 60000);
+        assertFalse(authenticator.verify("user", "wrong", SECRET));
+        assertFalse(authenticator.isCached("user", "wrong"));
+        assertFalse(authenticator.isCached("user", "secret"));
+    }
+
+    @Test
+    public void forgetsTheLeastRecentlyUsedLogins() throws InterruptedException {
+        Authenticator authenticator = new Authenticator(1, 4, 2, 60000);
+        authenticator.verify("a", "secret", SECRET);
+        authenticator.verify("b", "secret", SECRET);
+        assertTrue(authenticator.isCached("a", "secret"));
+        authenticator.verify("c", "secret", SECRET);
+        assertTrue(authenticator.isCached("a", "secret"));
+        assertFalse(authenticator.isCached("b", "secret"));
+        assertTrue(authenticator.isCached("c", "secret"));
+
+        authenticator.invalidateAll();
+        assertFalse(authenticator.isCached("a", "secret"));
+        assertFalse(authenticator.isCached("c", "secret"));
+    }
+
+    @Test
+    public void refusesHashesBeyondItsQueue() throws Exception {
+        Authenticator authenticator = new Authenticator(1, 1, 10, 0);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> hashes = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                hashes.add(clients.submit(() -> authenticator.hash("secret")));
+            }
+            List<byte[]> hashed = new ArrayList<>();
+            int refused = 0;
+            for (Future<byte[]> hash : hashes) {
+                try {
+                    hashed.add(hash.get());
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RejectedExecutionException);
+                    refused++;
+                }
+            }
+            assertTrue(refused > 0);
+            assertFalse(hashed.isEmpty());
+            for (byte[] stored : hashed) {
+                assertTrue(authenticator.verify("user", "secret", stored));
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+}
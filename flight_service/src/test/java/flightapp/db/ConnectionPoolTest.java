@@ -0,0 +1,156 @@
+package flightapp.db;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link ConnectionPool} hands out only working connections, undoes what borrowers
+ * leave behind, times out borrowers and reports loans held for too long.
+ */
+public class ConnectionPoolTest {
+
+    private static final ConnectionFactory FACTORY =
+            EmbeddedDatabase.connectionFactory(EmbeddedDatabase.url("connection_pool_test", null));
+
+    @Test
+    public void reusesTheIdleConnection() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(FACTORY, 2, 16, 1000, 0, 0)) {
+            Connection first;
+            try (PooledConnection pooled = pool.borrow()) {
+                first = pooled.getConnection();
+            }
+            try (PooledConnection pooled = pool.borrow()) {
+                assertSame(first, pooled.getConnection());
+            }
+            assertEquals(1, pool.stats().createdCount);
+            assertEquals(1, pool.stats().idle);
+        }
+    }
+
+    @Test
+    public void replacesAConnectionThatBrokeWhileIdle() throws SQLException {
+        // validated on every borrow
+        try (ConnectionPool pool = new ConnectionPool(FACTORY, 1, 16, 1000, 0, 0)) {
+            Connection broken;
+            try (PooledConnection pooled = pool.borrow()) {
+                broken = pooled.getConnection();
+            }
+            broken.close();
+
+            try (PooledConnection pooled = pool.borrow()) {
+                assertNotSame(broken, pooled.getConnection());
+                assertEquals(1, selectOne(pooled.getConnection()));
+            }
+            ConnectionPool.Stats stats = pool.stats();
+            assertEquals(2, stats.createdCount);
+            assertEquals(1, stats.discardedCount);
+        }
+    }
+
+    @Test
+    public void replacesAConnectionWhoseDatabaseWentAway() throws SQLException {
+        String url = EmbeddedDatabase.url("connection_pool_test_shutdown", null);
+        try (ConnectionPool pool = new ConnectionPool(EmbeddedDatabase.connectionFactory(url), 1, 16, 1000, 0, 0)) {
+            Connection stale;
+            try (PooledConnection pooled = pool.borrow()) {
+                stale = pooled.getConnection();
+            }
+            try (Connection other = DriverManager.getConnection(url); Statement st = other.createStatement()) {
+                st.execute("SHUTDOWN");
+            }
+
+            try (PooledConnection pooled = pool.borrow()) {
+                assertNotSame(stale, pooled.getConnection());
+                assertEquals(1, selectOne(pooled.getConnection()));
+            }
+            assertEquals(1, pool.stats().discardedCount);
+        }
+    }
+
+    @Test
+    public void discardsAConnectionThatBrokeOnLoan() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(FACTORY, 1, 16, 1000, 60000, 0)) {
+            try (PooledConnection pooled = pool.borrow()) {
+                pooled.getConnection().close();
+            }
+            assertEquals(0, pool.stats().idle);
+            assertEquals(1, pool.stats().discardedCount);
+            try (PooledConnection pooled = pool.borrow()) {
+                assertEquals(1, selectOne(pooled.getConnection()));
+            }
+        }
+    }
+
+    @Test
+    public void rollsBackWhatTheBorrowerLeftOpen() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(FACTORY, 1, 16, 1000, 60000, 0)) {
+            try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement()) {
+                st.execute("DROP TABLE IF EXISTS Leftovers");
+                st.execute("CREATE TABLE Leftovers(id int)");
+            }
+            try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement()) {
+                pooled.getConnection().setAutoCommit(false);
+                st.executeUpdate("INSERT INTO Leftovers VALUES(1)");
+            }
+            try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement();
+                 ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM Leftovers")) {
+                assertTrue(pooled.getConnection().getAutoCommit());
+                rs.next();
+                assertEquals(0, rs.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void timesOutWhenEveryConnectionIsOnLoan() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(FACTORY, 1, 16, 50, 60000, 0);
+             PooledConnection held = pool.borrow()) {
+            try {
+                pool.borrow();
+                fail("the only connection is on loan");
+            } catch (SQLTimeoutException expected) {
+            }
+            assertEquals(1, pool.stats().timeoutCount);
+            assertEquals(1, pool.stats().active);
+        }
+    }
+
+    @Test
+    public void reportsALoanHeldTooLongOnce() throws Exception {
+        // checked every second
+        try (ConnectionPool pool = new ConnectionPool(FACTORY, 1, 16, 1000, 60000, 100)) {
+            try (PooledConnection held = pool.borrow()) {
+                long deadline = System.currentTimeMillis() + 10000;
+                while (pool.stats().leakCount == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+                assertEquals(1, pool.stats().leakCount);
+                Thread.sleep(1500);
+                assertEquals(1, pool.stats().leakCount);
+            }
+            try (PooledConnection pooled = pool.borrow()) {
+                assertEquals(1, selectOne(pooled.getConnection()));
+            }
+            assertEquals(1, pool.stats().leakCount);
+        }
+    }
+
+    private static int selectOne(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT 1")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package flightapp.db;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks which errors {@link SqlErrors} tells apart, and that {@link TransactionTemplate} retries
+ * exactly the retryable ones, rolling back and giving the connection back before every retry.
+ */
+public class TransactionTemplateTest {
+
+    private static ConnectionPool pool;
+
+    private final CountingLender lender = new CountingLender();
+
+    @BeforeClass
+    public static void open() {
+        pool = new ConnectionPool(EmbeddedDatabase.connectionFactory(EmbeddedDatabase.url("template_test", null)), 2,
+                16, 30000, 5000, 0);
+    }
+
+    @AfterClass
+    public static void close() {
+        pool.close();
+    }
+
+    @Before
+    public void createTable() throws SQLException {
+        try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement()) {
+            st.execute("DROP TABLE IF EXISTS Attempts");
+            st.execute("CREATE TABLE Attempts(attempt int)");
+        }
+    }
+
+    @Test
+    public void classifiesErrors() {
+        assertTrue(SqlErrors.isDeadlock(new SQLException("deadlock", "40001", 1205)));
+        assertTrue(SqlErrors.isRetryable(new SQLException("deadlock", "40001", 1205)));
+        assertTrue(SqlErrors.isRetryable(new SQLException("snapshot update conflict", "HY000", 3960)));
+        assertTrue(SqlErrors.isRetryable(new SQLException("serialization failure", "40001", 0)));
+        assertFalse(SqlErrors.isDeadlock(new SQLException("serialization failure", "40001", 0)));
+        assertFalse(SqlErrors.isRetryable(new SQLException("primary key violation", "23000", 2627)));
+        assertFalse(SqlErrors.isRetryable(new SQLException("syntax error", "42000", 102)));
+        assertFalse(SqlErrors.isRetryable(new SQLException("no state")));
+
+        assertTrue(SqlErrors.isDuplicateKey(new SQLException("primary key violation", "23000", 2627)));
+        assertTrue(SqlErrors.isDuplicateKey(new SQLException("unique index violation", "23000", 2601)));
+        assertTrue(SqlErrors.isDuplicateKey(new SQLException("unique index violation", "23505", 23505)));
+        assertFalse(SqlErrors.isDuplicateKey(new SQLException("foreign key violation", "23000", 547)));
+        assertFalse(SqlErrors.isDuplicateKey(new SQLException("null in a not null column", "23000", 515)));
+        assertFalse(SqlErrors.isDuplicateKey(new SQLException("referential integrity", "23506", 23506)));
+        assertFalse(SqlErrors.isDuplicateKey(new SQLException("deadlock", "40001", 1205)));
+        assertFalse(SqlErrors.isDuplicateKey(new SQLException("no state")));
+    }
+
+    @Test
+    public void retriesDeadlocksOnAFreshConnection() throws SQLException {
+        TransactionTemplate template = new TransactionTemplate(3, 1, 2);
+        int result = template.execute("retry", lender, tx -> {
+            int attempt = insertAttempt();
+            if (attempt < 3) {
+                throw new SQLException("deadlock", "40001", 1205);
+            }
+            return attempt;
+        });
+        assertEquals(3, result);
+        assertEquals(3, lender.borrowed);
+        assertEquals(0, lender.lent);
+        // only the last attempt committed
+        assertEquals(1, count());
+
+        TransactionTemplate.OperationStats stats = template.stats().get("retry");
+        assertEquals(3, stats.attempts.sum());
+        assertEquals(1, stats.commits.sum());
+        assertEquals(2, stats.rollbacks.sum());
+        assertEquals(2, stats.retries.sum());
+        assertEquals(2, stats.deadlocks.sum());
+        assertEquals(0, stats.failures.sum());
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() {
+        TransactionTemplate template = new TransactionTemplate(2, 1, 2);
+        try {
+            template.execute("exhaust", lender, tx -> {
+                insertAttempt();
+                throw new SQLException("serialization failure", "40001", 0);
+            });
+            fail("the last attempt failed");
+        } catch (SQLException e) {
+            assertEquals("40001", e.getSQLState());
+        }
+        assertEquals(2, lender.borrowed);
+        assertEquals(0, lender.lent);
+        assertEquals(0, count());
+        assertEquals(1, template.stats().get("exhaust").failures.sum());
+    }
+
+    @Test
+    public void doesNotRetryOtherErrors() {
+        TransactionTemplate template = new TransactionTemplate(3, 1, 2);
+        try {
+            template.execute("fail", lender, tx -> {
+                insertAttempt();
+                throw new SQLException("primary key violation", "23000", 2627);
+            });
+            fail("the work failed");
+        } catch (SQLException e) {
+            assertTrue(SqlErrors.isDuplicateKey(e));
+        }
+        assertEquals(1, lender.borrowed);
+        assertEquals(0, lender.lent);
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void retriesWhenTheConnectionBreaksDuringTheAttempt() throws SQLException {
+        TransactionTemplate template = new TransactionTemplate(3, 1, 2);
+        long discarded = pool.stats().discardedCount;
+        int result = template.execute("broken", lender, tx -> {
+            int attempt = insertAttempt();
+            if (attempt == 1) {
+                // neither the rollback nor turning auto-commit back on works after this
+                lender.current.getConnection().close();
+                throw new SQLException("deadlock", "40001", 1205);
+            }
+            return attempt;
+        });
+        assertEquals(2, result);
+        assertEquals(2, lender.borrowed);
+        assertEquals(1, count());
+        assertEquals(discarded + 1, pool.stats().discardedCount);
+        assertEquals(1, template.stats().get("broken").retries.sum());
+    }
+
+    @Test
+    public void rollsBackWhenAsked() throws SQLException {
+        TransactionTemplate template = new TransactionTemplate(3, 1, 2);
+        String result = template.execute("rollback", lender, tx -> {
+            insertAttempt();
+            tx.setRollbackOnly();
+            return "rolled back";
+        });
+        assertEquals("rolled back", result);
+        assertEquals(0, count());
+        assertEquals(1, template.stats().get("rollback").rollbacks.sum());
+    }
+
+    /**
+     * Inserts a row numbered after the attempts made so far, on the connection of this attempt.
+     *
+     * @return the number of the attempt
+     */
+    private int insertAttempt() throws SQLException {
+        // the connection of the previous attempt was given back before this one was borrowed
+        assertEquals(1, lender.lent);
+        try (Statement st = lender.current.getConnection().createStatement()) {
+            st.executeUpdate("INSERT INTO Attempts VALUES(" + lender.borrowed + ")");
+        }
+        return lender.borrowed;
+    }
+
+    private static int count() {
+        try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM Attempts")) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Lends connections of the pool, counting them.
+     */
+    private static final class CountingLender implements TransactionTemplate.Lender {
+        int borrowed = 0;
+        int lent = 0;
+        PooledConnection current;
+
+        @Override
+        public PooledConnection borrow() throws SQLException {
+            current = pool.borrow();
+            borrowed++;
+            lent++;
+            return current;
+        }
+
+        @Override
+        public void giveBack(PooledConnection pooled) {
+            lent--;
+            pooled.close();
+        }
+    }
+}
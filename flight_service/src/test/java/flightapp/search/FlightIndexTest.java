@@ -0,0 +1,123 @@
+package flightapp.search;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the direct and one-stop searches of {@link FlightIndex} against every route of a
+ * synthetic month.
+ */
+public class FlightIndexTest {
+
+    private static SyntheticIndex month;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        month = SyntheticIndex.open("flight_index_test", 20000, 42);
+    }
+
+    @AfterClass
+    public static void close() {
+        month.close();
+    }
+
+    @Test
+    public void directFlightsAreTheFastestFlights() {
+        for (int[] search : month.flights.directSearches(200, 1)) {
+            for (int limit : new int[]{1, 3, 100}) {
+                List<int[]> all = month.routes(search[0], search[1], search[2], 1);
+                all.sort(Comparator.comparingInt(month::time).thenComparingInt(route -> route[0]));
+                assertEquals(SyntheticIndex.first(all, limit), SyntheticIndex.fids(
+                        month.index.directFlights(month.id(search[0]), month.id(search[1]), search[2], limit)));
+            }
+        }
+    }
+
+    @Test
+    public void oneStopFlightsAreTheFastestPairs() {
+        int nonEmpty = 0;
+        for (int[] search : month.flights.oneStopSearches(200, 2)) {
+            nonEmpty += checkOneStop(search[0], search[1], search[2]);
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            int origin = random.nextInt(month.flights.cities.length);
+            int dest = random.nextInt(month.flights.cities.length);
+            if (origin != dest) {
+                checkOneStop(origin, dest, 1 + random.nextInt(31));
+            }
+        }
+        assertTrue(nonEmpty > 100);
+    }
+
+    /**
+     * @return 1 if there is a one-stop route from {@code origin} to {@code dest} on {@code day}
+     */
+    private int checkOneStop(int origin, int dest, int day) {
+        List<int[]> all = month.routes(origin, dest, day, 2);
+        all.removeIf(route -> route.length != 2);
+        all.sort(Comparator.comparingInt(month::time).thenComparingInt((int[] route) -> route[0])
+                .thenComparingInt(route -> route[1]));
+        for (int limit : new int[]{1, 2, 7, 50, all.size() + 1}) {
+            assertEquals("one stop from " + origin + " to " + dest + " on " + day + ", limit " + limit,
+                    SyntheticIndex.first(all, limit),
+                    SyntheticIndex.fids(month.index.oneStopFlights(month.id(origin), month.id(dest), day, limit)));
+        }
+        return all.isEmpty() ? 0 : 1;
+    }
+
+    @Test
+    public void indexesAsManyCitiesAsItsSortKeyHolds() throws SQLException {
+        // the padding sorts before the cities with flights, which get the highest ids allowed
+        CityDictionary widest = padded(4096);
+        FlightIndex index = month.load(widest);
+        for (int[] search : month.flights.oneStopSearches(50, 5)) {
+            int origin = widest.id(month.flights.cities[search[0]]);
+            int dest = widest.id(month.flights.cities[search[1]]);
+            assertTrue(origin >= 4096 - month.flights.cities.length);
+            assertEquals(SyntheticIndex.fids(month.index.directFlights(month.id(search[0]), month.id(search[1]),
+                    search[2], 20)), SyntheticIndex.fids(index.directFlights(origin, dest, search[2], 20)));
+            assertEquals(SyntheticIndex.fids(month.index.oneStopFlights(month.id(search[0]), month.id(search[1]),
+                    search[2], 20)), SyntheticIndex.fids(index.oneStopFlights(origin, dest, search[2], 20)));
+        }
+        try {
+            month.load(padded(4097));
+            fail("city 4096 does not fit the sort key");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * @return the cities of the month and made-up ones sorting before them, {@code size} in all
+     */
+    private static CityDictionary padded(int size) {
+        List<String> names = new ArrayList<>(Arrays.asList(month.flights.cities));
+        for (int i = 0; names.size() < size; i++) {
+            names.add(String.format("Aaa%05d", i));
+        }
+        return CityDictionary.of(names);
+    }
+
+    @Test
+    public void noRoutesOutsideTheMonthOrWithoutALimit() {
+        int[] search = month.flights.directSearches(1, 4).get(0);
+        int origin = month.id(search[0]);
+        int dest = month.id(search[1]);
+        assertTrue(month.index.directFlights(origin, dest, search[2], 0).isEmpty());
+        assertTrue(month.index.oneStopFlights(origin, dest, search[2], 0).isEmpty());
+        assertTrue(month.index.directFlights(origin, dest, 0, 10).isEmpty());
+        assertTrue(month.index.oneStopFlights(origin, dest, 32, 10).isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+package flightapp.search;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the cheapest routes and the PARETO front of routes against every route of a synthetic
+ * month.
+ */
+public class RankingTest {
+
+    private static SyntheticIndex month;
+    // few cities with many flights between each two, where the front holds many routes
+    private static SyntheticIndex crowded;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        month = SyntheticIndex.open("ranking_test", 20000, 42);
+        crowded = SyntheticIndex.open("ranking_test_crowded", 3000, 6, 43);
+    }
+
+    @AfterClass
+    public static void close() {
+        month.close();
+        crowded.close();
+    }
+
+    @Test
+    public void cheapestRoutes() {
+        assertTrue(month.checkRandomSearches(Ranking.PRICE, 300, 1) > 100);
+        assertTrue(crowded.checkRandomSearches(Ranking.PRICE, 200, 2) > 100);
+    }
+
+    @Test
+    public void paretoFront() {
+        assertTrue(month.checkRandomSearches(Ranking.PARETO, 300, 3) > 100);
+        assertTrue(crowded.checkRandomSearches(Ranking.PARETO, 200, 4) > 100);
+    }
+
+    @Test
+    public void paretoFrontOfARangeOfDays() {
+        Random random = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            int origin = random.nextInt(crowded.cityCount);
+            int dest = random.nextInt(crowded.cityCount);
+            int firstDay = 1 + random.nextInt(28);
+            int lastDay = firstDay + random.nextInt(4);
+            int limit = 1 + random.nextInt(10);
+            if (origin != dest) {
+                for (Ranking ranking : new Ranking[]{Ranking.PRICE, Ranking.PARETO}) {
+                    assertEquals(crowded.expected(origin, dest, firstDay, lastDay, 3, ranking, limit),
+                            crowded.found(origin, dest, firstDay, lastDay, 3, ranking, limit));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rankingsByName() {
+        assertEquals(Ranking.PARETO, Ranking.of("pareto"));
+        assertEquals(Ranking.PRICE, Ranking.of("Price"));
+        assertNull(Ranking.of("cheapest"));
+    }
+}
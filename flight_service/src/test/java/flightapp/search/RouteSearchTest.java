@@ -0,0 +1,74 @@
+package flightapp.search;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the routes of up to N legs {@link RouteSearch} finds against every route of a synthetic
+ * month.
+ */
+public class RouteSearchTest {
+
+    private static SyntheticIndex month;
+    // few cities with many flights between each two, where routes keep running into each other
+    private static SyntheticIndex crowded;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        month = SyntheticIndex.open("route_search_test", 20000, 42);
+        crowded = SyntheticIndex.open("route_search_test_crowded", 3000, 6, 43);
+    }
+
+    @AfterClass
+    public static void close() {
+        month.close();
+        crowded.close();
+    }
+
+    @Test
+    public void fastestRoutes() {
+        assertTrue(month.checkRandomSearches(Ranking.TIME, 300, 1) > 100);
+    }
+
+    @Test
+    public void fewestFlights() {
+        assertTrue(month.checkRandomSearches(Ranking.HOPS, 300, 2) > 100);
+    }
+
+    @Test
+    public void routesAmongFewCities() {
+        assertTrue(crowded.checkRandomSearches(Ranking.TIME, 200, 4) > 100);
+        assertTrue(crowded.checkRandomSearches(Ranking.HOPS, 200, 5) > 100);
+    }
+
+    @Test
+    public void fastestRoutesOfARangeOfDays() {
+        Random random = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            int origin = random.nextInt(month.flights.cities.length);
+            int dest = random.nextInt(month.flights.cities.length);
+            int firstDay = 1 + random.nextInt(28);
+            int lastDay = firstDay + random.nextInt(4);
+            int limit = 1 + random.nextInt(10);
+            if (origin != dest) {
+                for (Ranking ranking : new Ranking[]{Ranking.TIME, Ranking.HOPS}) {
+                    assertEquals(month.expected(origin, dest, firstDay, lastDay, 3, ranking, limit),
+                            month.found(origin, dest, firstDay, lastDay, 3, ranking, limit));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void noRoutesWithoutLegsOrBackToTheOrigin() {
+        int[] search = month.flights.directSearches(1, 4).get(0);
+        assertTrue(month.found(search[0], search[1], search[2], search[2], 0, Ranking.TIME, 10).isEmpty());
+        assertTrue(month.found(search[0], search[0], search[2], search[2], 3, Ranking.TIME, 10).isEmpty());
+    }
+}
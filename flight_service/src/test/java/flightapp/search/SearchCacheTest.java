@@ -0,0 +1,109 @@
+package flightapp.search;
+
+import flightapp.dto.Itinerary;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link SearchCache} hands back only results whose flights were not invalidated
+ * since their search began, and drops results once they expire or are the least recently used.
+ */
+public class SearchCacheTest {
+
+    @Test
+    public void returnsWhatWasPut() {
+        SearchCache cache = new SearchCache(10, 60000);
+        SearchCache.Result result = result(1, 2);
+        cache.put(key("Seattle WA"), result, cache.stamp());
+        assertSame(result, cache.get(key("Seattle WA")));
+        assertNull(cache.get(key("Boston MA")));
+        assertNull(cache.get(new SearchCache.Key("Seattle WA", "Denver CO", 2, Ranking.PRICE, 1, 1, 5)));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void dropsTheResultsOfAnInvalidatedFlightOnly() {
+        SearchCache cache = new SearchCache(10, 60000);
+        SearchCache.Result other = result(3);
+        cache.put(key("Seattle WA"), result(1, 2), cache.stamp());
+        cache.put(key("Boston MA"), other, cache.stamp());
+        cache.invalidate(2);
+        assertNull(cache.get(key("Seattle WA")));
+        assertSame(other, cache.get(key("Boston MA")));
+    }
+
+    @Test
+    public void refusesAResultWhoseFlightWasInvalidatedDuringTheSearch() {
+        SearchCache cache = new SearchCache(10, 60000);
+        long stamp = cache.stamp();
+        cache.invalidate(2);
+        cache.put(key("Seattle WA"), result(1, 2), stamp);
+        assertNull(cache.get(key("Seattle WA")));
+
+        // a result stamped after the invalidation is current
+        cache.put(key("Seattle WA"), result(1, 2), cache.stamp());
+        assertEquals("flights [1, 2]", cache.get(key("Seattle WA")).text);
+    }
+
+    @Test
+    public void keepsAResultWhenOtherFlightsWereInvalidatedDuringTheSearch() {
+        SearchCache cache = new SearchCache(10, 60000);
+        long stamp = cache.stamp();
+        cache.invalidate(7);
+        cache.invalidate(8);
+        SearchCache.Result result = result(1, 2);
+        cache.put(key("Seattle WA"), result, stamp);
+        assertSame(result, cache.get(key("Seattle WA")));
+    }
+
+    @Test
+    public void expiresResultsAfterTheirTimeToLive() throws InterruptedException {
+        SearchCache cache = new SearchCache(10, 50);
+        cache.put(key("Seattle WA"), result(1), cache.stamp());
+        Thread.sleep(100);
+        assertNull(cache.get(key("Seattle WA")));
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResult() {
+        SearchCache cache = new SearchCache(2, 60000);
+        cache.put(key("Seattle WA"), result(1), cache.stamp());
+        cache.put(key("Boston MA"), result(2), cache.stamp());
+        cache.get(key("Seattle WA"));
+        cache.put(key("Denver CO"), result(3), cache.stamp());
+        assertNull(cache.get(key("Boston MA")));
+        assertEquals("flights [1]", cache.get(key("Seattle WA")).text);
+        assertEquals("flights [3]", cache.get(key("Denver CO")).text);
+        assertEquals(1, cache.evictions());
+
+        // the evicted result no longer counts as holding flight 2
+        cache.invalidate(2);
+        assertEquals("flights [1]", cache.get(key("Seattle WA")).text);
+    }
+
+    @Test
+    public void cachesNothingWithoutRoom() {
+        SearchCache cache = new SearchCache(0, 60000);
+        cache.put(key("Seattle WA"), result(1), cache.stamp());
+        assertNull(cache.get(key("Seattle WA")));
+    }
+
+    private static SearchCache.Key key(String origin) {
+        return new SearchCache.Key(origin, "Denver CO", 2, null, 1, 1, 5);
+    }
+
+    /**
+     * @return a result of one itinerary over {@code fids}
+     */
+    private static SearchCache.Result result(int... fids) {
+        Itinerary itinerary = new Itinerary(0, fids, 100, 1);
+        return new SearchCache.Result("flights " + Arrays.toString(fids), Arrays.asList(itinerary));
+    }
+}
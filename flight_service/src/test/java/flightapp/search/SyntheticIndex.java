@@ -0,0 +1,266 @@
+package flightapp.search;
+
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.PooledConnection;
+import flightapp.db.SyntheticFlights;
+import flightapp.dto.Flight;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A {@link SyntheticFlights} month loaded into an embedded database and a {@link FlightIndex}, with
+ * the routes between two cities found by enumerating every one of them, to check searches against.
+ *
+ * Cities are numbered as in the {@link SyntheticFlights}, and routes are given by their fids.
+ */
+final class SyntheticIndex implements AutoCloseable {
+
+    final SyntheticFlights flights;
+    final CityDictionary cities;
+    final FlightIndex index;
+    // cities 0 .. cityCount - 1 have flights
+    final int cityCount;
+
+    private final ConnectionPool pool;
+    // flights by day and origin
+    private final List<List<List<Integer>>> byDayAndOrigin = new ArrayList<>();
+
+    private SyntheticIndex(SyntheticFlights flights, int cityCount, ConnectionPool pool, CityDictionary cities,
+                           FlightIndex index) {
+        this.flights = flights;
+        this.cityCount = cityCount;
+        this.pool = pool;
+        this.cities = cities;
+        this.index = index;
+        for (int d = 0; d <= SyntheticFlights.DAYS; d++) {
+            List<List<Integer>> byOrigin = new ArrayList<>();
+            for (int c = 0; c < flights.cities.length; c++) {
+                byOrigin.add(new ArrayList<>());
+            }
+            byDayAndOrigin.add(byOrigin);
+        }
+        for (int i = 0; i < flights.size; i++) {
+            byDayAndOrigin.get(flights.day[i]).get(flights.origin[i]).add(i);
+        }
+    }
+
+    /**
+     * Generates {@code size} flights from {@code seed} into the in-memory database {@code name},
+     * and indexes them. Times are rounded to whole hours and prices to multiples of 50, so that
+     * many routes tie and their fids decide the order.
+     */
+    static SyntheticIndex open(String name, int size, long seed) throws SQLException, IOException {
+        return open(name, size, Integer.MAX_VALUE, seed);
+    }
+
+    /**
+     * Like {@link #open(String, int, long)}, but with the flights moved to the first
+     * {@code cityCount} cities, so that routes cross each other's cities often.
+     */
+    static SyntheticIndex open(String name, int size, int cityCount, long seed) throws SQLException, IOException {
+        SyntheticFlights flights = SyntheticFlights.generate(size, 100, seed);
+        for (int i = 0; i < size; i++) {
+            flights.time[i] = 60 * (1 + flights.time[i] / 60);
+            flights.price[i] = 50 * (1 + flights.price[i] / 50);
+            if (flights.cities.length > cityCount) {
+                int origin = flights.origin[i] % cityCount;
+                flights.origin[i] = origin;
+                flights.dest[i] = (origin + 1 + flights.dest[i] % (cityCount - 1)) % cityCount;
+            }
+        }
+        ConnectionPool pool = EmbeddedDatabase.open(name, flights, Paths.get("createTables.sql"), null, 1);
+        try (PooledConnection pooled = pool.borrow()) {
+            CityDictionary cities = CityDictionary.load(pooled.getConnection());
+            return new SyntheticIndex(flights, Math.min(cityCount, flights.cities.length), pool, cities,
+                    FlightIndex.load(pooled.getConnection(), cities));
+        }
+    }
+
+    /**
+     * @return an index of the same flights with the cities numbered by {@code cities}
+     */
+    FlightIndex load(CityDictionary cities) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            return FlightIndex.load(pooled.getConnection(), cities);
+        }
+    }
+
+    /**
+     * @return the id of city {@code city} in the index
+     */
+    int id(int city) {
+        return cities.id(flights.cities[city]);
+    }
+
+    /**
+     * @return every route of at most {@code maxLegs} flights from {@code origin} to {@code dest} on
+     *         {@code day} that visits no city twice, in no particular order
+     */
+    List<int[]> routes(int origin, int dest, int day, int maxLegs) {
+        List<int[]> routes = new ArrayList<>();
+        boolean[] visited = new boolean[flights.cities.length];
+        visited[origin] = true;
+        extend(origin, dest, day, maxLegs, new int[0], visited, routes);
+        return routes;
+    }
+
+    /**
+     * @return the first {@code limit} routes of any day from {@code firstDay} to {@code lastDay}
+     *         ranked as {@link FlightIndex#routes} should rank them, one string per route
+     */
+    List<String> expected(int origin, int dest, int firstDay, int lastDay, int maxLegs, Ranking ranking,
+                          int limit) {
+        List<int[]> routes = new ArrayList<>();
+        for (int day = firstDay; day <= lastDay; day++) {
+            routes.addAll(routes(origin, dest, day, maxLegs));
+        }
+        return first(rank(routes, ranking), limit);
+    }
+
+    /**
+     * @return the routes {@link FlightIndex#routes} finds, one string per route
+     */
+    List<String> found(int origin, int dest, int firstDay, int lastDay, int maxLegs, Ranking ranking, int limit) {
+        return fids(index.routes(id(origin), id(dest), firstDay, lastDay, maxLegs, ranking, limit));
+    }
+
+    /**
+     * Checks {@code searches} random searches of up to 4 legs on one day ranked by {@code ranking}.
+     *
+     * @return the number of searches that found a route
+     */
+    int checkRandomSearches(Ranking ranking, int searches, long seed) {
+        Random random = new Random(seed);
+        int nonEmpty = 0;
+        for (int i = 0; i < searches; i++) {
+            int origin = random.nextInt(cityCount);
+            int dest = random.nextInt(cityCount);
+            int day = 1 + random.nextInt(SyntheticFlights.DAYS);
+            int maxLegs = 1 + random.nextInt(4);
+            int limit = 1 + random.nextInt(i % 10 == 0 ? 200 : 12);
+            if (origin == dest) {
+                continue;
+            }
+            List<String> expected = expected(origin, dest, day, day, maxLegs, ranking, limit);
+            assertEquals(ranking + " from " + origin + " to " + dest + " on " + day + " in " + maxLegs
+                    + " legs, limit " + limit, expected, found(origin, dest, day, day, maxLegs, ranking, limit));
+            if (!expected.isEmpty()) {
+                nonEmpty++;
+            }
+        }
+        return nonEmpty;
+    }
+
+    private void extend(int city, int dest, int day, int maxLegs, int[] route, boolean[] visited,
+                        List<int[]> routes) {
+        if (route.length == maxLegs) {
+            return;
+        }
+        for (int i : byDayAndOrigin.get(day).get(city)) {
+            int next = flights.dest[i];
+            if (visited[next]) {
+                continue;
+            }
+            int[] longer = new int[route.length + 1];
+            System.arraycopy(route, 0, longer, 0, route.length);
+            longer[route.length] = i + 1;
+            if (next == dest) {
+                routes.add(longer);
+            } else {
+                visited[next] = true;
+                extend(next, dest, day, maxLegs, longer, visited, routes);
+                visited[next] = false;
+            }
+        }
+    }
+
+    int time(int[] fids) {
+        int time = 0;
+        for (int fid : fids) {
+            time += flights.time[fid - 1];
+        }
+        return time;
+    }
+
+    int price(int[] fids) {
+        int price = 0;
+        for (int fid : fids) {
+            price += flights.price[fid - 1];
+        }
+        return price;
+    }
+
+    /**
+     * Sorts {@code routes} by {@code ranking} and then by fids, and for {@link Ranking#PARETO} keeps
+     * only the routes cheaper than every faster one.
+     *
+     * @return the ranked routes
+     */
+    List<int[]> rank(List<int[]> routes, Ranking ranking) {
+        Comparator<int[]> byFids = Arrays::compare;
+        switch (ranking) {
+            case PRICE:
+                routes.sort(Comparator.comparingInt(this::price).thenComparing(byFids));
+                return routes;
+            case HOPS:
+                routes.sort(Comparator.comparingInt((int[] route) -> route.length).thenComparingInt(this::time)
+                        .thenComparing(byFids));
+                return routes;
+            case PARETO:
+                routes.sort(Comparator.comparingInt(this::time).thenComparingInt(this::price).thenComparing(byFids));
+                List<int[]> front = new ArrayList<>();
+                int bestPrice = Integer.MAX_VALUE;
+                for (int[] route : routes) {
+                    if (price(route) < bestPrice) {
+                        front.add(route);
+                        bestPrice = price(route);
+                    }
+                }
+                return front;
+            default:
+                routes.sort(Comparator.comparingInt(this::time).thenComparing(byFids));
+                return routes;
+        }
+    }
+
+    /**
+     * @return the fids of the routes, one string per route, to compare lists of routes by
+     */
+    static List<String> fids(List<Flight[]> routes) {
+        List<String> fids = new ArrayList<>();
+        for (Flight[] route : routes) {
+            int[] ids = new int[route.length];
+            for (int leg = 0; leg < route.length; leg++) {
+                ids[leg] = route[leg].fid;
+            }
+            fids.add(Arrays.toString(ids));
+        }
+        return fids;
+    }
+
+    /**
+     * @return the first {@code limit} routes, one string per route, to compare lists of routes by
+     */
+    static List<String> first(List<int[]> routes, int limit) {
+        List<String> fids = new ArrayList<>();
+        for (int i = 0; i < routes.size() && i < limit; i++) {
+            fids.add(Arrays.toString(routes.get(i)));
+        }
+        return fids;
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,149 @@
+package flightapp.server;
+
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.SyntheticFlights;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Talks to a {@link NioFlightServer} over a socket: pipelined commands, commands cut across
+ * reads, and a client that sends far more commands than a session queues.
+ */
+public class NioFlightServerTest {
+
+    private static final int MAX_PIPELINED = 4;
+
+    private static SyntheticFlights flights;
+    private static ConnectionPool pool;
+    private static NioFlightServer server;
+    private static int port;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        flights = SyntheticFlights.generate(2000, 100, 7);
+        pool = EmbeddedDatabase.open("nio_server_test", flights, Paths.get("createTables.sql"), null, 2);
+        // one worker, so that a client sending without reading gets ahead of it
+        server = new NioFlightServer(pool, 0, 1, 16, MAX_PIPELINED, 60000, 1024);
+        port = server.bind();
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "nio-server-test");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterClass
+    public static void stop() throws IOException {
+        server.close();
+        pool.close();
+    }
+
+    @Test
+    public void answersPipelinedCommandsInOrder() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(30000);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = reader(socket);
+
+            out.write(bytes("create pipelined secret 100\r\nlogin pipelined secret\nlogin pipelined secret\n"
+                    + "\nbook 1\nfrobnicate\n"));
+            assertEquals("Created user pipelined\n", response(in));
+            assertEquals("Logged in as pipelined\n", response(in));
+            assertEquals("User already logged in\n", response(in));
+            assertEquals("Please enter a command\n", response(in));
+            assertTrue(response(in).startsWith("booking failed"));
+            assertEquals("Error: unrecognized command 'frobnicate'\n", response(in));
+
+            // a command cut across writes, with a quoted argument that is not ASCII
+            out.write(bytes("create \"Zoë"));
+            out.flush();
+            sleep(100);
+            out.write(bytes(" Ö\" secret 5\r"));
+            out.flush();
+            sleep(100);
+            out.write(bytes("\nquit\n"));
+            assertEquals("Created user Zoë Ö\n", response(in));
+            assertEquals("Goodbye\n", response(in));
+        }
+    }
+
+    @Test
+    public void stopsReadingWhileTooManyCommandsAreQueued() throws IOException {
+        long throttled = throttled();
+        int commands = 300;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(30000);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < commands; i++) {
+                int origin = i % flights.cities.length;
+                int dest = (origin + 1) % flights.cities.length;
+                sb.append("search \"").append(flights.cities[origin]).append("\" \"").append(flights.cities[dest])
+                        .append("\" 0 ").append(1 + i % SyntheticFlights.DAYS).append(" 3\n");
+            }
+            sb.append("quit\n");
+            socket.getOutputStream().write(bytes(sb.toString()));
+
+            BufferedReader in = reader(socket);
+            for (int i = 0; i < commands; i++) {
+                String response = response(in);
+                assertTrue(i + ": " + response, response.startsWith("Itinerary 1: ")
+                        || response.equals("No flights match your selection\n"));
+            }
+            assertEquals("Goodbye\n", response(in));
+        }
+        assertTrue(throttled() > throttled);
+    }
+
+    private static long throttled() {
+        Matcher matcher = Pattern.compile("throttled: (\\d+)").matcher(server.stats());
+        assertTrue(matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the next response, without the empty line that ends it
+     */
+    private static String response(BufferedReader in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package flightapp.tools;
+
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.PooledConnection;
+import flightapp.db.SyntheticFlights;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Loads CSV files with {@link FlightLoader} through small windows and batches, so that lines cross
+ * windows and loads stop between batches, and checks the rows and the checkpoint they leave.
+ */
+public class FlightLoaderTest {
+
+    private static final int ROWS = 500;
+    private static final String HEADER = "fid,month_id,day_of_month_id,day_of_week_id,carrier_id,flight_num,"
+            + "origin_city,origin_state,dest_city,dest_state,departure_delay,taxi_out,arrival_delay,canceled,"
+            + "actual_time,distance,capacity,price";
+
+    private static ConnectionPool pool;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void open() throws Exception {
+        pool = EmbeddedDatabase.open("flight_loader_test", SyntheticFlights.generate(10, 10, 1),
+                Paths.get("createTables.sql"), null, 1);
+    }
+
+    @AfterClass
+    public static void close() {
+        pool.close();
+    }
+
+    @Before
+    public void emptyTables() throws SQLException {
+        try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement()) {
+            st.executeUpdate("DELETE FROM Flights");
+            st.executeUpdate("DELETE FROM FlightLoads");
+        }
+    }
+
+    @Test
+    public void loadsEveryLine() throws Exception {
+        Path file = write(csv(ROWS, "\r\n", -1));
+        FlightLoader.Result result = loader(false, false).load(file);
+
+        assertEquals(ROWS, result.rowsLoaded);
+        assertEquals(ROWS, result.rowsThisRun);
+        assertEquals(0, result.resumedAt);
+        assertEquals(ROWS, query("SELECT COUNT(*) FROM Flights"));
+        assertEquals(Files.size(file), query("SELECT next_offset FROM FlightLoads"));
+        assertEquals(ROWS, query("SELECT rows_loaded FROM FlightLoads"));
+
+        // every fifth row has no departure delay; times are written with a fractional part of zeros
+        try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement();
+             ResultSet rs = st.executeQuery("SELECT departure_delay, actual_time, origin_city, dest_city, price "
+                     + "FROM Flights WHERE fid = 25")) {
+            assertTrue(rs.next());
+            assertNull(rs.getObject(1));
+            assertEquals(85, rs.getInt(2));
+            assertEquals("Seattle, WA", rs.getString(3));
+            assertEquals("Boston MA", rs.getString(4));
+            assertEquals(125, rs.getInt(5));
+        }
+        assertEquals(ROWS / 5, query("SELECT COUNT(*) FROM Flights WHERE departure_delay IS NULL"));
+    }
+
+    @Test
+    public void resumesAfterTheLastCommittedBatch() throws Exception {
+        // line 321 is malformed, with as many bytes as its fixed version
+        Path file = write(csv(ROWS, "\n", 321));
+        try {
+            loader(false, false).load(file);
+            fail("line 321 is malformed");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().startsWith("Line at byte "));
+        }
+        // batches of 10: the rows up to 320 are committed, with the offset of line 321
+        assertEquals(320, query("SELECT COUNT(*) FROM Flights"));
+        assertEquals(320, query("SELECT rows_loaded FROM FlightLoads"));
+        long offset = query("SELECT next_offset FROM FlightLoads");
+        assertEquals((csv(320, "\n", -1) + "\n").getBytes(StandardCharsets.UTF_8).length, offset);
+
+        Files.write(file, csv(ROWS, "\n", -1).getBytes(StandardCharsets.UTF_8));
+        FlightLoader.Result result = loader(false, false).load(file);
+        assertEquals(offset, result.resumedAt);
+        assertEquals(ROWS - 320, result.rowsThisRun);
+        assertEquals(ROWS, result.rowsLoaded);
+        assertEquals(ROWS, query("SELECT COUNT(DISTINCT fid) FROM Flights"));
+        assertEquals(ROWS * (ROWS + 1) / 2, query("SELECT SUM(fid) FROM Flights"));
+    }
+
+    @Test
+    public void resumesOnlyTheSameFile() throws Exception {
+        Path file = write(csv(ROWS, "\n", 321));
+        try {
+            loader(false, false).load(file);
+            fail("line 321 is malformed");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        Files.write(file, (line(ROWS + 1) + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try {
+            loader(false, false).load(file);
+            fail("the file grew since its load stopped");
+        } catch (IllegalStateException expected) {
+        }
+
+        Files.write(file, csv(ROWS + 1, "\n", -1).getBytes(StandardCharsets.UTF_8));
+        FlightLoader.Result result = loader(true, true).load(file);
+        assertEquals(0, result.resumedAt);
+        assertEquals(ROWS + 1, result.rowsLoaded);
+        assertEquals(ROWS + 1, query("SELECT COUNT(*) FROM Flights"));
+    }
+
+    @Test
+    public void rejectsLinesWithTheWrongNumberOfColumns() throws Exception {
+        for (String line : new String[]{line(1) + ",7", line(1).substring(0, line(1).lastIndexOf(',')),
+                line(1).replace(",Washington,", ",\"Washington,")}) {
+            Path file = write(line + "\n");
+            try {
+                loader(true, true).load(file);
+                fail(line);
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage().startsWith("Line at byte 0"));
+            }
+        }
+        assertEquals(0, query("SELECT COUNT(*) FROM Flights"));
+    }
+
+    /**
+     * @return a loader with batches of 10 rows and a window of 1 KB
+     */
+    private static FlightLoader loader(boolean truncate, boolean restart) {
+        FlightLoader.Options options = new FlightLoader.Options();
+        options.minBatch = 10;
+        options.maxBatch = 10;
+        options.windowBytes = 1024;
+        options.truncate = truncate;
+        options.restart = restart;
+        return new FlightLoader(pool, options);
+    }
+
+    /**
+     * @return a header and the lines of fids 1 .. {@code last}, the one of fid
+     *         {@code malformed} with a letter in its price; the last line has no line break
+     */
+    private static String csv(int last, String lineBreak, int malformed) {
+        StringBuilder sb = new StringBuilder(HEADER).append(lineBreak);
+        for (int fid = 1; fid <= last; fid++) {
+            String line = line(fid);
+            if (fid == malformed) {
+                line = line.substring(0, line.length() - 1) + "x";
+            }
+            sb.append(line);
+            if (fid < last) {
+                sb.append(lineBreak);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String line(int fid) {
+        return fid + ",7," + (1 + fid % 31) + "," + (1 + fid % 7) + ",AA," + (100 + fid)
+                + ",\"Seattle, WA\",Washington,Boston MA,Massachusetts," + (fid % 5 == 0 ? "" : "3") + ",12,-4,0,"
+                + (60 + fid) + ".00,2000,10," + (100 + fid);
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static long query(String sql) throws SQLException {
+        try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
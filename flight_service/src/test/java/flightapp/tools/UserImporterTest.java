@@ -0,0 +1,150 @@
+package flightapp.tools;
+
+import flightapp.auth.Authenticator;
+import flightapp.db.ConnectionPool;
+import flightapp.db.EmbeddedDatabase;
+import flightapp.db.PooledConnection;
+import flightapp.db.SyntheticFlights;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link UserImporter} creates users as createUser does, rejects only the users that
+ * cannot be created, and stops on any other failure.
+ */
+public class UserImporterTest {
+
+    private static ConnectionPool pool;
+
+    @BeforeClass
+    public static void open() throws Exception {
+        pool = EmbeddedDatabase.open("user_importer_test", SyntheticFlights.generate(10, 10, 1),
+                Paths.get("createTables.sql"), null, 1);
+    }
+
+    @AfterClass
+    public static void close() {
+        pool.close();
+    }
+
+    @Before
+    public void clearUsers() throws SQLException {
+        try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement()) {
+            st.executeUpdate("DELETE FROM Users");
+            st.executeUpdate("INSERT INTO Users VALUES('taken', X'00', 1)");
+        }
+    }
+
+    @Test
+    public void rejectsTakenUsernamesAndNegativeBalancesOnly() throws Exception {
+        // batches of 3: the first and third hold a taken username, the second none
+        Iterator<UserImporter.NewUser> users = Arrays.asList(
+                new UserImporter.NewUser("ann", "a", 10),
+                new UserImporter.NewUser("taken", "t", 20),
+                new UserImporter.NewUser("bob", "b", 30),
+                new UserImporter.NewUser("broke", "x", -1),
+                new UserImporter.NewUser("cy", "c", 40),
+                new UserImporter.NewUser("dee", "d", 0),
+                new UserImporter.NewUser("eve", "e", 50),
+                new UserImporter.NewUser("ann", "again", 60),
+                new UserImporter.NewUser("fay", "f", 70),
+                new UserImporter.NewUser("gus", "g", 80)).iterator();
+        UserImporter.Result result;
+        try (UserImporter importer = new UserImporter(pool, 3, 2)) {
+            result = importer.importUsers(users);
+        }
+        assertEquals(7, result.imported);
+        assertEquals(3, result.rejected);
+
+        assertEquals(Arrays.asList("ann 10", "bob 30", "cy 40", "dee 0", "eve 50", "fay 70", "gus 80", "taken 1"),
+                users());
+        Authenticator authenticator = new Authenticator(1, 4, 10, 0);
+        assertTrue(authenticator.verify("ann", "a", password("ann")));
+        assertFalse(authenticator.verify("ann", "again", password("ann")));
+        assertTrue(authenticator.verify("gus", "g", password("gus")));
+    }
+
+    @Test
+    public void stopsOnAFailureThatIsNotATakenUsername() throws Exception {
+        Iterator<UserImporter.NewUser> users = Arrays.asList(
+                new UserImporter.NewUser("ann", "a", 10),
+                new UserImporter.NewUser("bob", "b", 20),
+                new UserImporter.NewUser(null, "n", 30),
+                new UserImporter.NewUser("cy", "c", 40)).iterator();
+        try (UserImporter importer = new UserImporter(pool, 2, 2)) {
+            importer.importUsers(users);
+            fail("a user without a name cannot be created");
+        } catch (SQLException expected) {
+        }
+        // the batch before the failing one stays committed
+        assertEquals(Arrays.asList("ann 10", "bob 20", "taken 1"), users());
+    }
+
+    @Test
+    public void readsUsersFromCsv() {
+        String csv = "# username,password,balance\n"
+                + "ann,pass word,10\n"
+                + "\n"
+                + " bob ,b, 20 \n";
+        Iterator<UserImporter.NewUser> users = UserImporter.readCsv(new BufferedReader(new StringReader(csv)));
+        List<String> read = new ArrayList<>();
+        while (users.hasNext()) {
+            UserImporter.NewUser user = users.next();
+            read.add(user.username + "/" + user.password + "/" + user.balance);
+        }
+        assertEquals(Arrays.asList("ann/pass word/10", "bob/b/20"), read);
+
+        try {
+            UserImporter.readCsv(new BufferedReader(new StringReader("ann,a,1\nbob,b\n"))).forEachRemaining(u -> {
+            });
+            fail("the second line has no balance");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().startsWith("Line 2"));
+        }
+    }
+
+    /**
+     * @return "username balance" of every user, by username
+     */
+    private static List<String> users() throws SQLException {
+        List<String> users = new ArrayList<>();
+        try (PooledConnection pooled = pool.borrow(); Statement st = pooled.getConnection().createStatement();
+             ResultSet rs = st.executeQuery("SELECT username, balance FROM Users ORDER BY username")) {
+            while (rs.next()) {
+                users.add(rs.getString(1) + " " + rs.getInt(2));
+            }
+        }
+        return users;
+    }
+
+    private static byte[] password(String username) throws SQLException {
+        try (PooledConnection pooled = pool.borrow();
+             PreparedStatement ps = pooled.getConnection().prepareStatement(
+                     "SELECT password FROM Users WHERE username = ?")) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getBytes(1);
+            }
+        }
+    }
+}